@@ -0,0 +1,126 @@
+package ledgerdb.scraper.benchmarks;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Transaction table rows as each institution's site shows them, generated
+ * from a fixed seed so that every run parses the same text.
+ * <p>
+ * Cell text follows what the drivers read with {@code getText()}: the
+ * institution's date format, descriptions with the line breaks and runs
+ * of spaces of wrapped table cells, and amounts with "$", thousands
+ * separators and the institution's sign convention.
+ */
+final class Corpus {
+
+    static final String[] INSTITUTIONS = { "capitalone", "mbna", "pcfinancial", "rbc", "simplii" };
+
+    static final int SIZE = 512;
+
+    private static final String[] MERCHANTS = {
+        "TIM HORTONS #%04d TORONTO ON",
+        "LOBLAWS %d\nMISSISSAUGA ON",
+        "Interac e-Transfer  Autodeposit\n%d",
+        "PAYROLL DEPOSIT   ACME CORP %d",
+        "AMZN Mktp CA*%dAB2CD  WWW.AMAZON.CA ON",
+        "Bill Payment\nTORONTO HYDRO %d",
+        "ATM WITHDRAWAL - %d\tBRANCH 0042",
+        "MONTHLY ACCOUNT FEE",
+        "PRESTO AUTLD %d     TORONTO ON",
+        "NETFLIX.COM %d  866-579-7172 ON",
+    };
+
+    /** One table row, as cell texts. */
+    static final class Row {
+        final String date;
+        final String description;
+        /** Amount cell of single-amount tables, debit cell otherwise */
+        final String debit;
+        /** Credit cell, empty if the row is a debit; unused by single-amount tables */
+        final String credit;
+        /** Running balance, null if the table has none */
+        final String balance;
+
+        Row(String date, String description, String debit, String credit, String balance) {
+            this.date = date;
+            this.description = description;
+            this.debit = debit;
+            this.credit = credit;
+            this.balance = balance;
+        }
+    }
+
+    private Corpus() {}
+
+    /** Date format the institution's driver parses with */
+    static String dateFormat(String institution) {
+        switch (institution) {
+            case "capitalone": return "M/dd/yy";
+            case "mbna": return "MM/dd/yyyy";
+            case "pcfinancial":
+            case "rbc":
+            case "simplii": return "MMM d, yyyy";
+            default: throw new IllegalArgumentException(institution);
+        }
+    }
+
+    static Row[] rows(String institution) {
+        Random random = new Random(institution.hashCode());
+        DateTimeFormatter format = DateTimeFormatter.ofPattern(dateFormat(institution), Locale.ENGLISH);
+        LocalDate date = LocalDate.of(2017, 3, 31);
+        long balance = 250000;
+        Row[] rows = new Row[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            if (random.nextInt(3) == 0)
+                date = date.minusDays(1);
+            String description = String.format(MERCHANTS[random.nextInt(MERCHANTS.length)],
+                    random.nextInt(10000));
+            // mostly small purchases, a few large deposits
+            boolean credit = random.nextInt(8) == 0;
+            long cents = credit
+                    ? 50000 + random.nextInt(400000)
+                    : 100 + (long)Math.abs(random.nextGaussian() * 8000);
+            balance += credit ? cents : -cents;
+            String dateText = date.format(format);
+            switch (institution) {
+                case "capitalone":
+                    // date cell starts with the row's drawer toggle;
+                    // charges positive, payments negative, two decimals always
+                    rows[i] = new Row("Open Drawer\n" + dateText, description,
+                            money(credit ? -cents : cents, true), "", null);
+                    break;
+                case "mbna":
+                    // decimals dropped on whole amounts
+                    rows[i] = new Row(dateText, description,
+                            money(credit ? -cents : cents, cents % 100 != 0), "", null);
+                    break;
+                case "rbc":
+                    // withdrawals shown negative
+                    rows[i] = new Row(dateText, description,
+                            credit ? "" : money(-cents, true),
+                            credit ? money(cents, true) : "",
+                            money(balance, true));
+                    break;
+                default:
+                    // separate debit and credit columns, both unsigned
+                    rows[i] = new Row(dateText, description,
+                            credit ? "" : money(cents, true),
+                            credit ? money(cents, true) : "",
+                            money(balance, true));
+                    break;
+            }
+        }
+        return rows;
+    }
+
+    /** Formats cents as "-$1,234.56", or "$1,234" without decimals */
+    private static String money(long cents, boolean decimals) {
+        String text = String.format(Locale.ENGLISH, "$%,d", Math.abs(cents) / 100);
+        if (decimals)
+            text += String.format(".%02d", Math.abs(cents) % 100);
+        return cents < 0 ? "-" + text : text;
+    }
+}
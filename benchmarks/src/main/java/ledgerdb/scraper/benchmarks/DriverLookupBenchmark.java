@@ -0,0 +1,52 @@
+package ledgerdb.scraper.benchmarks;
+
+import com.google.common.reflect.ClassPath;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import ledgerdb.scraper.ScraperDriverBase;
+import ledgerdb.scraper.registry.DriverRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cold-start cost of finding an institution's driver class: through the
+ * index generated at compile time, and by scanning the class path, as
+ * Scraper used to. Every measurement is the first lookup of a fresh JVM,
+ * index loading and class loading included.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+@State(Scope.Benchmark)
+public class DriverLookupBenchmark {
+
+    @Param({ "capitalone", "rbc" })
+    public String institution;
+
+    @Benchmark
+    public Class<?> registry() {
+        return DriverRegistry.lookup(institution);
+    }
+
+    @Benchmark
+    public Class<?> classPath() throws IOException {
+        String packageName = "ledgerdb.scraper.institution." + institution;
+        return ClassPath.from(ClassLoader.getSystemClassLoader())
+                .getTopLevelClasses(packageName)
+                .stream()
+                .map(ClassPath.ClassInfo::load)
+                .filter(ScraperDriverBase.class::isAssignableFrom)
+                .findFirst()
+                .get();
+    }
+}
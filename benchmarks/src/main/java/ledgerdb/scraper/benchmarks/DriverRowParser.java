@@ -0,0 +1,63 @@
+package ledgerdb.scraper.benchmarks;
+
+import java.math.BigDecimal;
+import ledgerdb.scraper.dto.StatementDTO;
+import ledgerdb.scraper.parse.Amounts;
+import ledgerdb.scraper.parse.Descriptions;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Row parsing as the institution drivers do it, one method per step.
+ * <p>
+ * The drivers parse inline, between WebDriver calls, so their code is
+ * repeated here step for step; keep it in sync when a driver changes.
+ */
+final class DriverRowParser {
+
+    private DriverRowParser() {}
+
+    static void date(String institution, Corpus.Row row, StatementDTO s) {
+        String date = row.date;
+        if (institution.equals("capitalone")) {
+            int start = StringUtils.indexOfAny(date, "0123456789"); // after Open Drawer, Close Drawer
+            date = date.substring(start).trim();
+        }
+        s.setDate(date, Corpus.dateFormat(institution));
+    }
+
+    static void description(String institution, Corpus.Row row, StatementDTO s) {
+        if (institution.equals("rbc"))
+            s.setDescription(Descriptions.collapse(row.description));
+        else
+            s.setDescription(row.description);
+    }
+
+    static BigDecimal amount(String institution, Corpus.Row row) {
+        switch (institution) {
+            case "capitalone":
+                return Amounts.parseDollarsOrNull(row.debit, true).negate();
+            case "mbna":
+                return Amounts.parseDollarsOrNull(row.debit, false).negate();
+            case "rbc":
+                return Amounts.parseSignedDebitCredit(row.debit, row.credit);
+            default:
+                return Amounts.parseDebitCredit(row.debit, row.credit);
+        }
+    }
+
+    /**
+     * @return the running balance, null if the row has none
+     */
+    static BigDecimal balance(Corpus.Row row) {
+        return Amounts.parseOrNull(row.balance);
+    }
+
+    static StatementDTO row(String institution, Corpus.Row row, int accountId) {
+        StatementDTO s = new StatementDTO();
+        s.setAccountId(accountId);
+        date(institution, row, s);
+        description(institution, row, s);
+        s.setAmount(amount(institution, row));
+        return s;
+    }
+}
@@ -0,0 +1,129 @@
+package ledgerdb.scraper.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.message.Message;
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost to the scraping thread of the drivers' per-row debug logging:
+ * messages built by concatenation, as the drivers used to, against
+ * parameterized messages; with debug enabled and disabled; and with the
+ * asynchronous loggers the scraper configures against synchronous ones.
+ * Scores are per row, two log calls.
+ * <p>
+ * Events go to an appender which formats and drops them, so that scores
+ * show the logging calls rather than the disk. With debug enabled, the
+ * asynchronous scores are bounded by the background thread once its
+ * ring buffer is full; run with {@code -prof gc} to see allocation per
+ * row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggingBenchmark {
+
+    private static final String LOGGER_NAME = "ledgerdb.scraper.benchmarks.rows";
+
+    /** Overrides the asynchronous selector of log4j2.component.properties */
+    private static final String SYNCHRONOUS
+            = "-DLog4jContextSelector=org.apache.logging.log4j.core.selector.ClassLoaderContextSelector";
+
+    @Param({ "debug", "info" })
+    public String level;
+
+    private Logger logger;
+    private final int rows = Corpus.SIZE;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        LoggerContext context = (LoggerContext)LogManager.getContext(false);
+        Configuration configuration = context.getConfiguration();
+        DiscardingAppender appender = new DiscardingAppender();
+        appender.start();
+        configuration.addAppender(appender);
+        LoggerConfig loggerConfig = new LoggerConfig(LOGGER_NAME,
+                org.apache.logging.log4j.Level.valueOf(level), false);
+        loggerConfig.addAppender(appender, null, null);
+        configuration.addLogger(LOGGER_NAME, loggerConfig);
+        context.updateLoggers();
+        logger = LogManager.getLogger(LOGGER_NAME);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public void concatenation() {
+        for (int j = 1; j <= rows; j++) {
+            logger.debug("Parsing transaction " + j + " out of " + rows);
+            logger.debug("Done merged transaction " + j);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public void parameterized() {
+        for (int j = 1; j <= rows; j++) {
+            logger.debug("Parsing transaction {} out of {}", j, rows);
+            logger.debug("Done merged transaction {}", j);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    @Fork(value = 1, jvmArgsAppend = SYNCHRONOUS)
+    public void concatenationSync() {
+        concatenation();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    @Fork(value = 1, jvmArgsAppend = SYNCHRONOUS)
+    public void parameterizedSync() {
+        parameterized();
+    }
+
+    /**
+     * Formats messages into a reused buffer, like a garbage-free layout
+     * would, and drops them.
+     */
+    private static class DiscardingAppender extends AbstractAppender {
+
+        private final StringBuilder buffer = new StringBuilder(256);
+
+        DiscardingAppender() {
+            super("Discard", null, null);
+        }
+
+        @Override
+        public void append(LogEvent event) {
+            buffer.setLength(0);
+            Message message = event.getMessage();
+            if (message instanceof StringBuilderFormattable)
+                ((StringBuilderFormattable)message).formatTo(buffer);
+            else
+                buffer.append(message.getFormattedMessage());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package ledgerdb.scraper.benchmarks;
+
+import static com.google.common.base.Preconditions.checkState;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import ledgerdb.scraper.dto.StatementDTO;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Row parsing as the institution drivers did it before the
+ * {@code ledgerdb.scraper.parse} package, with regular expressions, a
+ * formatter built per date and {@code BigDecimal}s parsed from cleaned
+ * up copies of the text; the baseline of {@link DriverRowParser}.
+ */
+final class RegexRowParser {
+
+    private RegexRowParser() {}
+
+    static void date(String institution, Corpus.Row row, StatementDTO s) {
+        String date = row.date;
+        if (institution.equals("capitalone")) {
+            date = date.replaceAll("\\s", "");
+            date = date.replaceFirst("^[A-Za-z]+", ""); // Open Drawer, Close Drawer
+        }
+        s.setDate(LocalDate.parse(date, DateTimeFormatter.ofPattern(Corpus.dateFormat(institution))));
+    }
+
+    static void description(String institution, Corpus.Row row, StatementDTO s) {
+        String description;
+        switch (institution) {
+            case "rbc":
+                description = row.description.replaceAll("\\p{Space}+", " ");
+                break;
+            case "mbna":
+                description = row.description.trim();
+                break;
+            default:
+                description = row.description;
+                break;
+        }
+        // as StatementDTO.setDescription did; it then finds nothing left to clean up
+        s.setDescription(description.replaceAll("\\s", " ").trim());
+    }
+
+    static BigDecimal amount(String institution, Corpus.Row row) {
+        String amount;
+        switch (institution) {
+            case "capitalone":
+                amount = row.debit;
+                checkState(amount.matches("^-?\\$[\\d,]+\\.\\d\\d$"));
+                amount = amount.replaceAll("[^-\\d.]", "");
+                return new BigDecimal(amount).negate();
+            case "mbna":
+                amount = row.debit;
+                checkState(amount.matches("^-?\\$[\\d,]+(\\.\\d\\d)?$"));
+                amount = amount.replaceAll("[^-\\d.]", "");
+                return new BigDecimal(amount).negate();
+            case "rbc":
+                String amount1 = row.debit; // WITHDRAWALS, negative
+                String amount2 = row.credit; // DEPOSIT, positive
+                checkState(StringUtils.isBlank(amount1) != StringUtils.isBlank(amount2));
+                amount = StringUtils.isBlank(amount1) ? amount2 : amount1;
+                checkState(amount.matches("^-?\\$[\\d,]+\\.\\d\\d$")); // -$1,000.00
+                checkState(amount == (amount.startsWith("-") ? amount1 : amount2));
+                amount = amount.replaceAll("[^-\\d.]", "");
+                return new BigDecimal(amount);
+            default:
+                String dr = row.debit;
+                String cr = row.credit;
+                checkState(dr.equals("") != cr.equals(""));
+                int sign;
+                if (cr.equals("")) {
+                    sign = -1;
+                    amount = dr;
+                } else {
+                    sign = +1;
+                    amount = cr;
+                }
+                checkState(amount.matches("^\\$[\\d,]+(\\.\\d\\d)?$"));
+                amount = amount.replaceAll("[^\\d.]", "");
+                if (sign < 0)
+                    amount = "-" + amount;
+                return new BigDecimal(amount);
+        }
+    }
+
+    /**
+     * @return the running balance, null if the row has none
+     */
+    static BigDecimal balance(Corpus.Row row) {
+        String balance = row.balance;
+        if (balance == null)
+            return null;
+        return balance.matches("^-?\\$[\\d,]+(\\.\\d\\d)?$")
+                ? new BigDecimal(balance.replaceAll("[^-\\d.]", ""))
+                : null;
+    }
+
+    static StatementDTO row(String institution, Corpus.Row row, int accountId) {
+        StatementDTO s = new StatementDTO();
+        s.setAccountId(accountId);
+        date(institution, row, s);
+        description(institution, row, s);
+        s.setAmount(amount(institution, row));
+        return s;
+    }
+}
@@ -0,0 +1,102 @@
+package ledgerdb.scraper.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import ledgerdb.scraper.dto.StatementDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-row parsing of transaction tables, per institution: dates, amounts
+ * and descriptions separately, and whole rows. Scores are per row; run
+ * with {@code -prof gc} to see allocation per row.
+ * <p>
+ * Parser "parse" is the drivers' code, with {@code ledgerdb.scraper.parse};
+ * "regex" the regular expressions they used before, as a baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RowParseBenchmark {
+
+    @Param({ "capitalone", "mbna", "pcfinancial", "rbc", "simplii" })
+    public String institution;
+
+    @Param({ "parse", "regex" })
+    public String parser;
+
+    private Corpus.Row[] rows;
+    private boolean regex;
+
+    @Setup
+    public void setUp() {
+        rows = Corpus.rows(institution);
+        regex = parser.equals("regex");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public void date(Blackhole blackhole) {
+        for (Corpus.Row row : rows) {
+            StatementDTO s = new StatementDTO();
+            if (regex)
+                RegexRowParser.date(institution, row, s);
+            else
+                DriverRowParser.date(institution, row, s);
+            blackhole.consume(s);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public void amount(Blackhole blackhole) {
+        for (Corpus.Row row : rows)
+            blackhole.consume(regex
+                    ? RegexRowParser.amount(institution, row)
+                    : DriverRowParser.amount(institution, row));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public void balance(Blackhole blackhole) {
+        for (Corpus.Row row : rows)
+            blackhole.consume(regex
+                    ? RegexRowParser.balance(row)
+                    : DriverRowParser.balance(row));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public void description(Blackhole blackhole) {
+        for (Corpus.Row row : rows) {
+            StatementDTO s = new StatementDTO();
+            if (regex)
+                RegexRowParser.description(institution, row, s);
+            else
+                DriverRowParser.description(institution, row, s);
+            blackhole.consume(s);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(Corpus.SIZE)
+    public void row(Blackhole blackhole) {
+        for (Corpus.Row row : rows)
+            blackhole.consume(regex
+                    ? RegexRowParser.row(institution, row, 1)
+                    : DriverRowParser.row(institution, row, 1));
+    }
+}
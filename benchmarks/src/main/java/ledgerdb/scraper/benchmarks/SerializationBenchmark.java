@@ -0,0 +1,117 @@
+package ledgerdb.scraper.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import ledgerdb.scraper.InstanceInfo;
+import ledgerdb.scraper.ObjectBuilder;
+import ledgerdb.scraper.SiteInfo;
+import ledgerdb.scraper.SiteInfoBuilder;
+import ledgerdb.scraper.dto.StatementDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization of statements for upload, through the Jackson provider
+ * Jersey registers for JSON entities, with a plain {@link ObjectMapper} as
+ * baseline; and the {@link ObjectBuilder} calls which build the site and
+ * instance info of every job.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    /**
+     * Statements per batch request, as posted with {@code --batch-size 50};
+     * the default batch size is 1, which {@link #statementJersey} covers
+     */
+    private static final int BATCH_SIZE = 50;
+
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    private final JacksonJaxbJsonProvider provider = new JacksonJaxbJsonProvider();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+
+    private StatementDTO statement;
+    private GenericEntity<List<StatementDTO>> batch;
+    private String notes;
+
+    @Setup
+    public void setUp() {
+        Corpus.Row[] rows = Corpus.rows("rbc");
+        List<StatementDTO> statements = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            StatementDTO s = DriverRowParser.row("rbc", rows[i], 42);
+            s.setSequence(1);
+            statements.add(s);
+        }
+        statement = statements.get(0);
+        batch = new GenericEntity<List<StatementDTO>>(statements) {};
+        notes = "{\"institution\": \"rbc\"}";
+    }
+
+    @Benchmark
+    public int statementJersey() throws IOException {
+        out.reset();
+        provider.writeTo(statement, StatementDTO.class, StatementDTO.class, NO_ANNOTATIONS,
+                MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<>(), out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int batchJersey() throws IOException {
+        out.reset();
+        Type type = batch.getType();
+        provider.writeTo(batch.getEntity(), batch.getRawType(), type, NO_ANNOTATIONS,
+                MediaType.APPLICATION_JSON_TYPE, new MultivaluedHashMap<>(), out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int statementObjectMapper() throws IOException {
+        out.reset();
+        mapper.writeValue(out, statement);
+        return out.size();
+    }
+
+    @Benchmark
+    public SiteInfo siteInfoBuilder() {
+        return new SiteInfoBuilder()
+                .set("logon", "4519012345678901")
+                .set("password", "correct horse")
+                .set("url", "https://www1.royalbank.com/")
+                .set("notes", notes)
+                .build();
+    }
+
+    @Benchmark
+    public InstanceInfo instanceInfoBuilder() {
+        return new ObjectBuilder<>(InstanceInfo.class)
+                .set("url", "https://ledgerdb.example.com/api/")
+                .set("username", "scraper")
+                .set("password", "secret")
+                .build();
+    }
+}
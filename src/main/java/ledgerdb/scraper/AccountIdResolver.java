@@ -0,0 +1,334 @@
+package ledgerdb.scraper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import ledgerdb.scraper.dto.InstitutionLinkDTO;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Resolves institution account references to LedgerDB account ids.
+ * <p>
+ * Links are kept in memory and in a per-instance cache file under
+ * {@link #DEFAULT_CACHE_DIR}, so that repeat runs within the TTL do not
+ * need to ask the server at all. {@link #prefetch(String)} loads all links
+ * of an institution in one request; references not found there are looked
+ * up one by one. Concurrent lookups of the same reference share a single
+ * request.
+ * <p>
+ * A cached link may be stale when a reference was linked to another
+ * account on the server since; {@link #revalidate(int)} looks the links
+ * of an account up again when the server rejects statements for it. All
+ * resolvers of a JVM writing the same cache file take turns, and each
+ * merges the links the others wrote before replacing the file.
+ * <p>
+ * Expired links are kept as a fallback: once {@link #setOffline offline},
+ * lookups use the links at hand however old, and only fail for references
+ * which were never resolved.
+ */
+public class AccountIdResolver {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    public static final String DEFAULT_CACHE_DIR = "cache";
+    public static final long DEFAULT_TTL_HOURS = 24;
+
+    private final ServerTransport transport;
+    private final String url;
+    private final Path cacheFile;
+    private final long ttlMillis;
+    private final long created = System.currentTimeMillis();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /** Monitors of the cache files, shared by all resolvers */
+    private static final Map<Path, Object> fileLocks = new ConcurrentHashMap<>();
+
+    /** Links loaded from disk or from the server, by {@link #key}. */
+    private final Map<String, CachedLink> links = new ConcurrentHashMap<>();
+    /** Time each institution was last prefetched. */
+    private final Map<String, Long> prefetched = new ConcurrentHashMap<>();
+    /** Time links were invalidated, by {@link #key}, so merges drop them */
+    private final Map<String, Long> invalidated = new ConcurrentHashMap<>();
+
+    private final LoadingCache<String, Integer> cache;
+
+    private volatile boolean offline = false;
+
+    /**
+     * @param ttlHours how long links stay valid; 0 disables the cache file
+     *      and keeps links for the lifetime of this resolver
+     */
+    public AccountIdResolver(ServerTransport transport, long ttlHours) {
+        this.transport = transport;
+        this.url = transport.getUrl();
+        this.ttlMillis = TimeUnit.HOURS.toMillis(ttlHours);
+        this.cacheFile = ttlHours > 0
+                ? Paths.get(DEFAULT_CACHE_DIR, "institution_link-"
+                        + Hashing.sha256().hashString(url, StandardCharsets.UTF_8)
+                                .toString().substring(0, 16)
+                        + ".json")
+                : null;
+
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+        if (ttlMillis > 0)
+            builder.expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS);
+        cache = builder.build(CacheLoader.from(this::load));
+
+        loadCacheFile();
+    }
+
+    /**
+     * Loads all links of the institution in one request, unless they were
+     * loaded within the TTL already. Servers without the listing endpoint
+     * are tolerated, lookups then fall back to one request per reference.
+     */
+    public synchronized void prefetch(String institution) {
+        if (offline)
+            return;
+        Long time = prefetched.get(institution);
+        if (time != null && isFresh(time)) {
+            logger.debug("Using cached institution links for " + institution);
+            return;
+        }
+
+        Response r = transport.institutionLink()
+                .path(institution)
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .get();
+        if (r.getStatus() != 200) {
+            logger.debug("Prefetch of institution links for " + institution
+                    + " not available: " + r.getStatus() + " " + r.getStatusInfo().getReasonPhrase());
+            r.close();
+            return;
+        }
+        List<InstitutionLinkDTO> list = r.readEntity(new GenericType<List<InstitutionLinkDTO>>() {});
+        logger.debug("Prefetched " + list.size() + " institution links for " + institution);
+
+        long now = System.currentTimeMillis();
+        links.values().removeIf(link -> link.institution.equals(institution));
+        for (InstitutionLinkDTO i : list) {
+            String key = key(i.institution, i.reference);
+            links.put(key, new CachedLink(i.institution, i.reference, i.accountId, now));
+            cache.invalidate(key);
+        }
+        prefetched.put(institution, now);
+        saveCacheFile();
+    }
+
+    public int getAccountId(String institution, String reference) {
+        try {
+            return cache.getUnchecked(key(institution, reference));
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Makes lookups use the cached links, however old, instead of asking
+     * the server, after the server became unavailable.
+     */
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    /**
+     * Drops the link from memory and from the cache file, so that the next
+     * lookup goes to the server.
+     */
+    public void invalidate(String institution, String reference) {
+        String key = key(institution, reference);
+        cache.invalidate(key);
+        invalidated.put(key, System.currentTimeMillis());
+        if (links.remove(key) != null) {
+            logger.debug("Invalidated institution link " + key);
+            prefetched.remove(institution);
+            saveCacheFile();
+        }
+    }
+
+    /**
+     * Looks up the references linked to the account again, bypassing the
+     * cache, after the server rejected statements for the account.
+     *
+     * @return the account the references are linked to now; the account
+     *      itself if their links did not change, or if they now point to
+     *      different accounts
+     */
+    public int revalidate(int accountId) {
+        List<CachedLink> stale = new ArrayList<>();
+        links.values().stream()
+                .filter(link -> link.accountId == accountId)
+                .forEach(stale::add);
+        Integer current = null;
+        for (CachedLink link : stale) {
+            invalidate(link.institution, link.reference);
+            int id;
+            try {
+                id = getAccountId(link.institution, link.reference);
+            } catch (IllegalStateException e) {
+                logger.warn(e.getMessage());
+                continue;
+            }
+            if (current != null && current != id) {
+                logger.warn("References of account " + accountId + " are now linked to accounts "
+                        + current + " and " + id);
+                return accountId;
+            }
+            current = id;
+        }
+        return current != null ? current : accountId;
+    }
+
+    private Integer load(String key) {
+        CachedLink cached = links.get(key);
+        if (cached != null && isFresh(cached.fetched))
+            return cached.accountId;
+        if (offline) {
+            if (cached == null)
+                throw new IllegalStateException("Institution link not cached, server unavailable: " + key);
+            logger.debug("Using expired institution link " + key);
+            return cached.accountId;
+        }
+
+        String[] parts = key.split("/", 2);
+        String institution = parts[0], reference = parts[1];
+        Response r = transport.institutionLink()
+                .path(institution)
+                .path(reference)
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .get();
+        if (r.getStatus() == 404) {
+            r.close();
+            invalidate(institution, reference);
+            throw new IllegalStateException("Institution link not found: " + key);
+        }
+        ServerSession.checkStatus(r);
+
+        InstitutionLinkDTO i = r.readEntity(InstitutionLinkDTO.class);
+        if (cached != null && cached.accountId != i.accountId)
+            logger.info("Institution link " + key + " changed from account "
+                    + cached.accountId + " to " + i.accountId);
+        links.put(key, new CachedLink(institution, reference, i.accountId,
+                System.currentTimeMillis()));
+        saveCacheFile();
+        return i.accountId;
+    }
+
+    private boolean isFresh(long time) {
+        if (ttlMillis == 0)
+            return time >= created;
+        return System.currentTimeMillis() - time < ttlMillis;
+    }
+
+    private static String key(String institution, String reference) {
+        return institution + "/" + reference;
+    }
+
+    private void loadCacheFile() {
+        if (cacheFile == null || !Files.exists(cacheFile))
+            return;
+        try {
+            CacheFile file = mapper.readValue(cacheFile.toFile(), CacheFile.class);
+            // expired links are kept for lookups while the server is unavailable
+            file.links.forEach(link -> links.put(key(link.institution, link.reference), link));
+            file.prefetched.forEach((institution, time) -> {
+                if (isFresh(time))
+                    prefetched.put(institution, time);
+            });
+            logger.debug("Loaded " + links.size() + " institution links from " + cacheFile);
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable cache file " + cacheFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the cache file with the links of this resolver, keeping
+     * the newer links other resolvers wrote to it in the meantime.
+     */
+    private void saveCacheFile() {
+        if (cacheFile == null)
+            return;
+        synchronized (fileLocks.computeIfAbsent(cacheFile.toAbsolutePath(), path -> new Object())) {
+            Map<String, CachedLink> merged = new HashMap<>(links);
+            Map<String, Long> mergedPrefetched = new HashMap<>(prefetched);
+            if (Files.exists(cacheFile)) {
+                try {
+                    CacheFile existing = mapper.readValue(cacheFile.toFile(), CacheFile.class);
+                    for (CachedLink link : existing.links) {
+                        String key = key(link.institution, link.reference);
+                        Long dropped = invalidated.get(key);
+                        if (dropped != null && link.fetched <= dropped)
+                            continue;
+                        merged.merge(key, link, (a, b) -> a.fetched >= b.fetched ? a : b);
+                    }
+                    existing.prefetched.forEach((institution, time) ->
+                            mergedPrefetched.merge(institution, time, Math::max));
+                } catch (IOException e) {
+                    logger.debug("Overwriting unreadable cache file " + cacheFile + ": " + e.getMessage());
+                }
+            }
+            CacheFile file = new CacheFile();
+            file.url = url;
+            file.prefetched.putAll(mergedPrefetched);
+            file.links.addAll(merged.values());
+            try {
+                Files.createDirectories(cacheFile.getParent());
+                Path tmp = Files.createTempFile(cacheFile.getParent(), "institution_link", ".tmp");
+                try {
+                    mapper.writeValue(tmp.toFile(), file);
+                    Files.move(tmp, cacheFile,
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            } catch (IOException e) {
+                logger.warn("Unable to write cache file " + cacheFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    static class CachedLink {
+        public String institution;
+        public String reference;
+        public int accountId;
+        public long fetched;
+
+        CachedLink() {}
+
+        CachedLink(String institution, String reference, int accountId, long fetched) {
+            this.institution = institution;
+            this.reference = reference;
+            this.accountId = accountId;
+            this.fetched = fetched;
+        }
+    }
+
+    static class CacheFile {
+        public String url;
+        public Map<String, Long> prefetched = new HashMap<>();
+        public List<CachedLink> links = new ArrayList<>();
+    }
+}
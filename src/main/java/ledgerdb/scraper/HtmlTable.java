@@ -0,0 +1,109 @@
+package ledgerdb.scraper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * Text and class attributes of the cells of a table, read in a single
+ * WebDriver round trip.
+ * <p>
+ * Cell text is the element's rendered text with non-breaking spaces
+ * replaced and surrounding whitespace trimmed, like
+ * {@link WebElement#getText()}. A missing class attribute is returned
+ * as an empty string.
+ */
+public class HtmlTable {
+
+    private static final String SCRIPT = ""
+            + "var context = arguments[0], rowXPath = arguments[1], cellXPath = arguments[2];\n"
+            + "var headerRows = arguments[3], headerCellXPath = arguments[4];\n"
+            + "function evaluate(xpath, node) {\n"
+            + "  return document.evaluate(xpath, node, null, XPathResult.ORDERED_NODE_SNAPSHOT_TYPE, null);\n"
+            + "}\n"
+            + "var rows = evaluate(rowXPath, context), result = [];\n"
+            + "for (var i = 0; i < rows.snapshotLength; i++) {\n"
+            + "  var cells = evaluate(i < headerRows ? headerCellXPath : cellXPath, rows.snapshotItem(i));\n"
+            + "  var text = [], classes = [];\n"
+            + "  for (var j = 0; j < cells.snapshotLength; j++) {\n"
+            + "    var cell = cells.snapshotItem(j);\n"
+            + "    text.push((cell.innerText || '').replace(/\\u00a0/g, ' ').trim());\n"
+            + "    classes.push(cell.getAttribute('class') || '');\n"
+            + "  }\n"
+            + "  result.push([text, classes]);\n"
+            + "}\n"
+            + "return result;";
+
+    private final List<String[]> text;
+    private final List<String[]> classes;
+
+    private HtmlTable(List<String[]> text, List<String[]> classes) {
+        this.text = Collections.unmodifiableList(text);
+        this.classes = Collections.unmodifiableList(classes);
+    }
+
+    /**
+     * @param context element the row XPath is evaluated against
+     * @param rowXPath selects the rows, e.g. ".//tr"
+     * @param cellXPath selects the cells of a row, e.g. "./td"
+     */
+    public static HtmlTable extract(RemoteWebDriver driver, WebElement context,
+            String rowXPath, String cellXPath) {
+        return extract(driver, context, rowXPath, 0, null, cellXPath);
+    }
+
+    /**
+     * Reads the first rows as headers, with cells selected by their own
+     * XPath, so that data rows can be validated against "./td" only.
+     *
+     * @param headerRows number of header rows
+     * @param headerCellXPath selects the cells of a header row, e.g. "./th"
+     */
+    public static HtmlTable extract(RemoteWebDriver driver, WebElement context,
+            String rowXPath, int headerRows, String headerCellXPath, String cellXPath) {
+        List<?> result = (List<?>)driver.executeScript(SCRIPT, context, rowXPath, cellXPath,
+                headerRows, headerCellXPath);
+        List<String[]> text = new ArrayList<>(result.size());
+        List<String[]> classes = new ArrayList<>(result.size());
+        for (Object row : result) {
+            List<?> pair = (List<?>)row;
+            text.add(toArray((List<?>)pair.get(0)));
+            classes.add(toArray((List<?>)pair.get(1)));
+        }
+        return new HtmlTable(text, classes);
+    }
+
+    private static String[] toArray(List<?> list) {
+        return list.stream().map(String::valueOf).toArray(String[]::new);
+    }
+
+    /** Number of rows. */
+    public int size() { return text.size(); }
+
+    /** Cell text of each row, headers included. */
+    public List<String[]> getText() { return text; }
+
+    /** Cell class attributes of each row. */
+    public List<String[]> getClasses() { return classes; }
+
+    public String[] getText(int row) { return text.get(row); }
+    public String[] getClasses(int row) { return classes.get(row); }
+
+    /**
+     * Returns the non-empty cell texts of the row joined by spaces, which
+     * is what {@link WebElement#getText()} returns for a table row.
+     */
+    public String getRowText(int row) {
+        StringBuilder sb = new StringBuilder();
+        for (String cell : text.get(row)) {
+            if (cell.isEmpty())
+                continue;
+            if (sb.length() > 0)
+                sb.append(' ');
+            sb.append(cell);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,160 @@
+package ledgerdb.scraper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import ledgerdb.scraper.sync.SyncState;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Server transports, statement journals, statement spools and sync states
+ * of the LedgerDB instances of a run, opened on first use and shared by
+ * all jobs of the instance.
+ */
+public class InstanceResources implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private final Function<InstanceInfo, ServerTransport> transportFactory;
+    private final int batchSize;
+    private final long linkCacheTtl;
+    private final int uploadThreads;
+    private final int journalRetention;
+    private final boolean rebuildJournal;
+
+    /** Server transports by instance name */
+    private final Map<String, ServerTransport> transports = new ConcurrentHashMap<>();
+    /** Statement journals by instance name */
+    private final Map<String, StatementJournal> journals = new ConcurrentHashMap<>();
+    /** Statement spools by instance name */
+    private final Map<String, StatementSpool> spools = new ConcurrentHashMap<>();
+    /** Account watermarks by instance name */
+    private final Map<String, SyncState> syncStates = new ConcurrentHashMap<>();
+
+    /**
+     * @param transportFactory creates the transport of an instance
+     * @param journalRetention days statements are kept in the journal, 0
+     *      disables the journal
+     * @param rebuildJournal whether journals are rebuilt from the server
+     *      when opened
+     * @see ServerSession#ServerSession(ServerTransport, int, long, int,
+     *      StatementJournal, StatementSpool)
+     */
+    public InstanceResources(Function<InstanceInfo, ServerTransport> transportFactory,
+            int batchSize, long linkCacheTtl, int uploadThreads,
+            int journalRetention, boolean rebuildJournal) {
+        this.transportFactory = transportFactory;
+        this.batchSize = batchSize;
+        this.linkCacheTtl = linkCacheTtl;
+        this.uploadThreads = uploadThreads;
+        this.journalRetention = journalRetention;
+        this.rebuildJournal = rebuildJournal;
+    }
+
+    /**
+     * Opens a session with the instance, using its shared transport,
+     * journal and spool.
+     */
+    public ServerSession openSession(KPScript kpscript, String instanceName) throws IOException {
+        ServerTransport transport = getTransport(kpscript, instanceName);
+        return new ServerSession(transport, batchSize, linkCacheTtl, uploadThreads,
+                getJournal(instanceName, transport), getSpool(instanceName));
+    }
+
+    private ServerTransport getTransport(KPScript kpscript, String instanceName) throws IOException {
+        ServerTransport transport = transports.get(instanceName);
+        if (transport != null)
+            return transport;
+        InstanceInfo instanceInfo = new ObjectBuilder<>(InstanceInfo.class)
+                .set("url", kpscript.getEntry(instanceName, "URL"))
+                .set("username", kpscript.getEntry(instanceName, "UserName"))
+                .set("password", kpscript.getEntry(instanceName, "Password"))
+                .build();
+        return transports.computeIfAbsent(instanceName, name -> transportFactory.apply(instanceInfo));
+    }
+
+    /**
+     * Creates this process' spool file for the instance on first use.
+     */
+    private StatementSpool getSpool(String instanceName) {
+        return spools.computeIfAbsent(instanceName, name -> {
+            try {
+                return StatementSpool.open(Paths.get(AccountIdResolver.DEFAULT_CACHE_DIR), name);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Opens the statement journal of the instance on first use, rebuilding
+     * it if asked to.
+     *
+     * @return null if the journal is disabled
+     */
+    private StatementJournal getJournal(String instanceName, ServerTransport transport) {
+        if (journalRetention == 0)
+            return null;
+        return journals.computeIfAbsent(instanceName, name -> {
+            try {
+                StatementJournal journal = StatementJournal.open(Paths.get(
+                        AccountIdResolver.DEFAULT_CACHE_DIR, "journal-" + name + ".bin"),
+                        journalRetention);
+                if (rebuildJournal) {
+                    try {
+                        journal.rebuild(transport);
+                    } catch (IOException | RuntimeException e) {
+                        journal.close();
+                        throw e;
+                    }
+                }
+                return journal;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Loads the account watermarks of the instance on first use.
+     */
+    public SyncState getSyncState(String instanceName) {
+        return syncStates.computeIfAbsent(instanceName, name -> SyncState.load(Paths.get(
+                AccountIdResolver.DEFAULT_CACHE_DIR, "sync-" + name + ".json")));
+    }
+
+    /**
+     * Flushes the spool files to the storage device, e.g. on shutdown.
+     */
+    public void forceSpools() {
+        for (StatementSpool spool : spools.values()) {
+            try {
+                spool.force();
+            } catch (IOException e) {
+                logger.warn("Unable to sync statement spool: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Closes the spools, journals and transports of all instances.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            for (StatementSpool spool : spools.values())
+                spool.close();
+            spools.clear();
+            for (StatementJournal journal : journals.values())
+                journal.close();
+            journals.clear();
+        } finally {
+            transports.values().forEach(ServerTransport::close);
+            transports.clear();
+        }
+    }
+}
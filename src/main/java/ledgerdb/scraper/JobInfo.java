@@ -0,0 +1,34 @@
+package ledgerdb.scraper;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One entry of a job manifest: which site to scrape into which instance,
+ * using which selenium driver, and when to run it in daemon mode.
+ */
+public class JobInfo {
+
+    /** Site name */
+    public final String site;
+    /** Instance name, prefix "ledgerdb-" may be omitted; null for default */
+    public final String instance;
+    /** Selenium driver name; null for default */
+    public final String driver;
+    /** Cron expression for daemon mode; null to run only on demand */
+    public final String schedule;
+    /** Maximum random delay added to each scheduled run, in seconds */
+    public final int jitter;
+
+    public JobInfo(
+            @JsonProperty("site") String site,
+            @JsonProperty("instance") String instance,
+            @JsonProperty("driver") String driver,
+            @JsonProperty("schedule") String schedule,
+            @JsonProperty("jitter") int jitter) {
+        this.site = site;
+        this.instance = instance;
+        this.driver = driver;
+        this.schedule = schedule;
+        this.jitter = jitter;
+    }
+}
@@ -0,0 +1,38 @@
+package ledgerdb.scraper;
+
+/**
+ * Outcome of one scraping job.
+ */
+public class JobResult {
+
+    public final String site;
+    public final String instance;
+    public final int countProcessed;
+    public final int countInserted;
+    public final long elapsedMillis;
+    /** Exception which failed the job, null if it succeeded */
+    public final Exception exception;
+
+    public JobResult(String site, String instance,
+            int countProcessed, int countInserted,
+            long elapsedMillis, Exception exception) {
+        this.site = site;
+        this.instance = instance;
+        this.countProcessed = countProcessed;
+        this.countInserted = countInserted;
+        this.elapsedMillis = elapsedMillis;
+        this.exception = exception;
+    }
+
+    public boolean isSuccess() { return exception == null; }
+
+    @Override
+    public String toString() {
+        return String.format("%-20s %-20s %-6s %6d processed %6d inserted %7.1f s%s",
+                site, instance,
+                isSuccess() ? "OK" : "FAILED",
+                countProcessed, countInserted,
+                elapsedMillis / 1000.0,
+                isSuccess() ? "" : "  " + exception.getMessage());
+    }
+}
@@ -0,0 +1,292 @@
+package ledgerdb.scraper;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Injector;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import ledgerdb.scraper.jfr.ScraperEvents;
+import ledgerdb.scraper.jfr.Span;
+import ledgerdb.scraper.metrics.Metrics;
+import ledgerdb.scraper.registry.DriverRegistry;
+import ledgerdb.scraper.replay.CommandInterceptor;
+import ledgerdb.scraper.replay.PageCapture;
+import ledgerdb.scraper.replay.PageReplay;
+import ledgerdb.scraper.replay.ReplayServer;
+import ledgerdb.scraper.sync.SyncState;
+import ledgerdb.scraper.sync.SyncTracker;
+import ledgerdb.scraper.trace.CommandTrace;
+import ledgerdb.scraper.trace.CommandTracer;
+import ledgerdb.scraper.util.Pacer;
+import ledgerdb.scraper.util.PausePolicy;
+import ledgerdb.scraper.util.TimingProfile;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * Runs scraping jobs: looks up the site's credentials and driver, opens a
+ * session with the instance, runs the driver in a borrowed browser and
+ * records the metrics of the job.
+ */
+public class JobRunner {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private final Metrics metrics;
+    private final InstanceResources instances;
+    private final PausePolicy pausePolicy;
+    /** Serves the captured pages, null unless replaying */
+    private final ReplayServer replayServer;
+    /** Directory pages are captured to, null unless capturing */
+    private final String captureDir;
+    /** WebDriver command timings, null unless tracing */
+    private final CommandTrace commandTrace;
+    /** Whether browsers are left open and logged in */
+    private final boolean keep;
+    private final boolean fullScan;
+    
+    /** Learned page timings by institution */
+    private final Map<String, TimingProfile> timingProfiles = new ConcurrentHashMap<>();
+
+    public JobRunner(Metrics metrics, InstanceResources instances, PausePolicy pausePolicy,
+            ReplayServer replayServer, String captureDir, CommandTrace commandTrace,
+            boolean keep, boolean fullScan) {
+        this.metrics = metrics;
+        this.instances = instances;
+        this.pausePolicy = pausePolicy;
+        this.replayServer = replayServer;
+        this.captureDir = captureDir;
+        this.commandTrace = commandTrace;
+        this.keep = keep;
+        this.fullScan = fullScan;
+    }
+    
+    /**
+     * Uploads the statements left in the spool files of the instance.
+     * Fails if any of them could not be uploaded.
+     */
+    public JobResult replaySpool(KPScript kpscript, String instanceName) {
+        logger.info("Replaying spooled statements: instance=" + instanceName);
+        long started = System.currentTimeMillis();
+        ServerSession serverSession = null;
+        Exception exception = null;
+        try {
+            serverSession = instances.openSession(kpscript, instanceName);
+            try {
+                serverSession.replaySpool();
+            } finally {
+                serverSession.close();
+                recordStatements(instanceName, serverSession);
+            }
+            if (serverSession.getCountSpooled() > 0)
+                throw new IllegalStateException(serverSession.getCountSpooled()
+                        + " statements could not be uploaded");
+        } catch (Exception e) {
+            logger.error("Exception occurred: " + e.getMessage(), e);
+            exception = e;
+        }
+        return new JobResult(Scraper.OPTION_REPLAY_SPOOL, instanceName,
+                serverSession == null ? 0 : serverSession.getCountProcessed(),
+                serverSession == null ? 0 : serverSession.getCountInserted(),
+                System.currentTimeMillis() - started,
+                exception);
+    }
+    
+    /**
+     * Runs the job with a browser of the Selenium driver, logging instead
+     * of throwing if it fails.
+     *
+     * @param parentInjector binds the {@link KPScript}, unless replaying,
+     *      the {@link WebDriverPool}, the {@link Pacer} and the
+     *      {@link Metrics}
+     */
+    public JobResult runJob(Injector parentInjector, JobInfo job, String seleniumDriver) {
+        String siteName = job.site;
+        String instanceName = Scraper.getInstanceName(job.instance);
+        
+        String threadName = Thread.currentThread().getName();
+        Thread.currentThread().setName(siteName);
+        logger.info(String.format("Scraper started: site=%s, instance=%s", siteName, instanceName));
+        long started = System.currentTimeMillis();
+        
+        ServerSession serverSession = null;
+        Exception exception = null;
+        try {
+            KPScript kpscript = replayServer != null ? null : parentInjector.getInstance(KPScript.class);
+            
+            SiteInfo siteInfo;
+            if (replayServer != null) {
+                siteInfo = replayServer.getSiteInfo();
+            } else {
+                try (Metrics.Timing timing = metrics.timer("credential_load_seconds", "step", "lookup").time()) {
+                    siteInfo = new SiteInfoBuilder()
+                            .set("logon", kpscript.getEntry(siteName, "UserName"))
+                            .set("password", kpscript.getEntry(siteName, "Password"))
+                            .set("url", kpscript.getEntry(siteName, "URL"))
+                            .set("notes", kpscript.getEntry(siteName, "Notes"))
+                            .build();
+                }
+            }
+            
+            Class<? extends ScraperDriverBase> scraperDriverClass;
+            try (Metrics.Timing timing = metrics.timer("driver_lookup_seconds").time()) {
+                scraperDriverClass = DriverRegistry.lookup(siteInfo.institution);
+            }
+            TimingProfile timingProfile = timingProfiles.computeIfAbsent(siteInfo.institution,
+                    institution -> TimingProfile.load(Paths.get(
+                            AccountIdResolver.DEFAULT_CACHE_DIR, "timing-" + institution + ".json")));
+            
+            SyncTracker syncTracker;
+            if (replayServer != null) {
+                serverSession = ServerSession.dryRun();
+                // always walk every captured row, and never store watermarks
+                syncTracker = new SyncTracker(SyncState.load(Paths.get(
+                        AccountIdResolver.DEFAULT_CACHE_DIR, "sync-" + Scraper.REPLAY_SITE_NAME + ".json")), true);
+            } else {
+                serverSession = instances.openSession(kpscript, instanceName);
+                syncTracker = new SyncTracker(instances.getSyncState(instanceName), fullScan);
+            }
+            Metrics.Timer uploadTimer = metrics.timer("upload_request_seconds", "instance", instanceName);
+            serverSession.setRequestListener(uploadTimer::record);
+            try {
+                serverSession.replaySpool();
+                serverSession.prefetchAccountIds(siteInfo.institution);
+                
+                ServerSession session = serverSession;
+                Injector injector = parentInjector.createChildInjector(new ScraperModule(seleniumDriver) {
+                    @Override
+                    protected void configure() {
+                        bind(ScraperDriverBase.class).to(scraperDriverClass);
+                        bind(ServerSession.class).toInstance(session);
+                        bind(PausePolicy.class).toInstance(pausePolicy);
+                        bind(TimingProfile.class).toInstance(timingProfile);
+                        bind(SyncTracker.class).toInstance(syncTracker);
+                    }
+                });
+                
+                runDriver(injector, siteInfo);
+            } finally {
+                // replays do not show how long the site takes
+                if (replayServer == null)
+                    timingProfile.save();
+                serverSession.close();
+                recordStatements(instanceName, serverSession);
+            }
+            // all statements are on the server now, or safe in the spool
+            if (replayServer == null)
+                syncTracker.commit();
+            if (serverSession.getCountSpooled() > 0)
+                logger.warn(serverSession.getCountSpooled() + " statements left in the spool for the next run");
+            logger.info("Scraper completed successfully" + System.lineSeparator());
+        } catch (Exception e) {
+            logger.error("Exception occurred: " + e.getMessage(), e);
+            exception = e;
+        } finally {
+            Thread.currentThread().setName(threadName);
+        }
+        long millis = System.currentTimeMillis() - started;
+        metrics.timer("job_seconds", "site", siteName).record(millis, TimeUnit.MILLISECONDS);
+        metrics.counter("jobs_total", "site", siteName, "result", exception == null ? "success" : "failure")
+                .increment();
+        return new JobResult(siteName, instanceName,
+                serverSession == null ? 0 : serverSession.getCountProcessed(),
+                serverSession == null ? 0 : serverSession.getCountInserted(),
+                millis,
+                exception);
+    }
+    
+    private void recordStatements(String instanceName, ServerSession serverSession) {
+        int processed = serverSession.getCountProcessed();
+        int inserted = serverSession.getCountInserted();
+        metrics.counter("statements_total", "instance", instanceName, "result", "inserted").add(inserted);
+        metrics.counter("statements_total", "instance", instanceName, "result", "existing")
+                .add(processed - inserted);
+        metrics.counter("statements_total", "instance", instanceName, "result", "spooled")
+                .add(serverSession.getCountSpooled());
+    }
+    
+    private void runDriver(Injector injector, SiteInfo siteInfo) throws Exception {
+        WebDriverPool pool = injector.getInstance(WebDriverPool.class);
+        RemoteWebDriver driver = injector.getInstance(RemoteWebDriver.class);
+        ScraperDriverBase scraperDriver = null;
+        CommandInterceptor interceptor = null;
+        CommandTracer tracer = null;
+        // the browser is only kept open once it shows the site
+        boolean connected = false;
+        long started = System.nanoTime();
+        try {
+            scraperDriver = injector.getInstance(ScraperDriverBase.class);
+            if (replayServer != null)
+                interceptor = new PageReplay(driver, replayServer);
+            else if (captureDir != null)
+                interceptor = new PageCapture(driver, Paths.get(captureDir), siteInfo);
+            if (interceptor != null)
+                interceptor.install();
+            // on top of the interceptor, to time replayed commands as the driver sees them
+            if (commandTrace != null) {
+                tracer = new CommandTracer(driver, commandTrace);
+                tracer.install();
+            }
+            
+            logger.debug("Running driver for institution: " + siteInfo.institution);
+            
+            logger.debug("Connecting to " + siteInfo.url);
+            try (Metrics.Timing timing = metrics.timer("login_seconds", "institution", siteInfo.institution).time();
+                    Span span = ScraperEvents.login(siteInfo.institution)) {
+                try (Pacer.Permit permit = injector.getInstance(Pacer.class).acquire(siteInfo.institution)) {
+                    connected = true;
+                    driver.get(siteInfo.url);
+                }
+                scraperDriver.logIn(siteInfo.logon, siteInfo.password);
+            }
+            scraperDriver.scrape();
+        } finally {
+            boolean keep = connected && this.keep;
+            try {
+                if (scraperDriver != null && !keep)
+                    scraperDriver.close(); // log out
+            } finally {
+                if (tracer != null)
+                    tracer.close();
+                if (interceptor != null) {
+                    interceptor.close();
+                    logCommandCounts(siteInfo.institution, interceptor,
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                }
+                if (!keep)
+                    pool.release(driver);
+                else
+                    pool.abandon(driver);
+            }
+        }
+    }
+    
+    private static void logCommandCounts(String institution, CommandInterceptor interceptor, long millis) {
+        StringBuilder counts = new StringBuilder();
+        interceptor.getCommandCounts().entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .forEach(e -> counts.append(System.lineSeparator())
+                        .append(String.format("%8d %s", e.getValue(), e.getKey())));
+        logger.info(String.format("Driver %s: %d ms, %d WebDriver commands%s",
+                institution, millis, interceptor.getCommandCount(), counts));
+    }
+    
+    abstract class ScraperModule extends AbstractModule {
+        
+        private final String driverClassName;
+        
+        ScraperModule(String driverClassName) {
+            this.driverClassName = driverClassName;
+        }
+        
+        @Provides @Singleton
+        RemoteWebDriver provideRemoteWebDriver(WebDriverPool pool) {
+            return pool.borrow(driverClassName);
+        }
+        
+    } // class ScraperModule
+}
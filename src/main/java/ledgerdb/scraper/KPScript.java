@@ -2,98 +2,97 @@ package ledgerdb.scraper;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
-import org.apache.commons.io.IOUtils;
+import ledgerdb.scraper.jfr.ScraperEvents;
+import ledgerdb.scraper.jfr.Span;
+import ledgerdb.scraper.kdbx.KdbxDatabase;
+import ledgerdb.scraper.kdbx.KdbxEntry;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-public class KPScript {
+/**
+ * Credentials stored in a KeePass database. Named after the KPScript tool
+ * it used to call; the database is now decrypted in-process, once, and
+ * entries are served from memory until {@link #close()}.
+ */
+public class KPScript implements AutoCloseable {
 
-    private static final String EOL = System.lineSeparator();
-    
     private static final Logger logger = LogManager.getLogger();
-    
+
     public static final String DEFAULT_KDBX_FILE = "ledgerdb-scraper.kdbx";
     public static final String DEFAULT_KDBX_PW = "@ledgerdb-scraper.pw";
-    
-    private final String file;
-    private final String pw;
-    
+
+    private final KdbxDatabase database;
+
+    /**
+     * @param pw master password, or @ followed by the path of a file whose
+     *      first line is the master password
+     */
     public KPScript(String file, String pw) throws FileNotFoundException, IOException {
-        if (!Files.exists(Paths.get(file)))
+        Path path = Paths.get(file);
+        if (!Files.exists(path))
             throw new FileNotFoundException(file);
-        this.file = file;
-        
+
+        byte[] password;
         if (pw != null && pw.startsWith("@")) {
-            this.pw = Files.readAllLines(Paths.get(pw.substring(1))).get(0);
+            password = readFirstLine(Paths.get(pw.substring(1)));
         } else {
-            this.pw = pw;
+            password = (pw == null ? "" : pw).getBytes(StandardCharsets.UTF_8);
         }
+        try {
+            long started = System.currentTimeMillis();
+            database = KdbxDatabase.open(path, password);
+            logger.debug("Opened " + file + " in " + (System.currentTimeMillis() - started) + " ms");
+        } finally {
+            Arrays.fill(password, (byte)0);
+        }
+    }
+
+    private static byte[] readFirstLine(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        int end = 0;
+        while (end < bytes.length && bytes[end] != '\n' && bytes[end] != '\r')
+            end++;
+        byte[] line = Arrays.copyOf(bytes, end);
+        Arrays.fill(bytes, (byte)0);
+        return line;
     }
-    
+
     public String getEntry(String title, String field) throws IOException {
-        return call("GetEntryString",
-                "-ref-Title:" + title,
-                "-FailIfNoEntry",
-                "-Field:" + field);
+        logger.debug("GetEntryString -ref-Title:" + title + " -Field:" + field);
+        try (Span span = ScraperEvents.credentialLookup(title, field)) {
+            List<KdbxEntry> entries = database.getEntries()
+                    .stream()
+                    .filter(entry -> title.equals(entry.getTitle()))
+                    .collect(Collectors.toList());
+            if (entries.isEmpty())
+                throw new IllegalStateException("No entry with title: " + title);
+            if (entries.size() > 1)
+                logger.warn("Multiple entries with title " + title + ", using the first one");
+            String value = entries.get(0).getField(field);
+            return value == null ? "" : value;
+        }
     }
-    
+
     public void listEntries() throws IOException {
-        String output = call("ListEntries");
-        String[] blocks = output.split(EOL + EOL);
-        for (String block : blocks) {
-            String[] lines = block.split(EOL);
-            if (Arrays.stream(lines)
-                    .anyMatch(line -> line.equals("GRPN: Recycle Bin")))
-                continue;
-            Arrays.stream(lines)
-                    .filter(line -> line.startsWith("S: "))
-                    .map(line -> line.replaceFirst("^(S: Password =) .*", "$1 ********"))
-                    .forEach(System.out::println);
+        for (KdbxEntry entry : database.getEntries()) {
+            for (String field : entry.getFieldNames()) {
+                System.out.println("S: " + field + " = "
+                        + (field.equals("Password") ? "********" : entry.getField(field)));
+            }
             System.out.println();
         }
     }
-    
-    public String call(String command, String... args) throws IOException {
-        ArrayList<String> list = new ArrayList<>();
-        list.add("KPScript");
-        list.add("-c:" + command);
-        list.add(file);
-        list.add("-pw:" + pw);
-        Collections.addAll(list, args);
-        logger.debug(list
-                .stream()
-                .map(arg -> arg.startsWith("-pw:")
-                        ? "-pw:******"
-                        : arg)
-                .collect(Collectors.joining(" ")));
-        
-        Process p = new ProcessBuilder(list)
-                .redirectErrorStream(true)
-                .start();
-        try {
-            p.waitFor();
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Interrupted", e);
-        }
-        String output = IOUtils.toString(p.getInputStream(), Charset.defaultCharset());
-        if (p.exitValue() != 0) {
-            logger.error(output);
-            throw new RuntimeException("KPScript failed, exit value " + p.exitValue());
-        }
-        
-        String[] lines = output.split(EOL);
-        if (lines.length < 2
-                || !"OK: Operation completed successfully.".equals(lines[lines.length - 1])) {
-            logger.error(output);
-            throw new RuntimeException("KPScript failed");
-        }
-        return Arrays.stream(lines, 0, lines.length - 1).collect(Collectors.joining(EOL));
+
+    /** Wipes the decrypted database from memory. */
+    @Override
+    public void close() {
+        database.close();
     }
-}
\ No newline at end of file
+}
@@ -1,15 +1,32 @@
 package ledgerdb.scraper;
 
-import com.google.common.reflect.ClassPath;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
-import com.google.inject.Provides;
-import com.google.inject.Singleton;
 import com.google.inject.name.Names;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import ledgerdb.scraper.jfr.ScraperEvents;
+import ledgerdb.scraper.metrics.Metrics;
+import ledgerdb.scraper.metrics.MetricsExporter;
+import ledgerdb.scraper.replay.ReplayServer;
+import ledgerdb.scraper.trace.CommandTrace;
+import ledgerdb.scraper.util.Pacer;
+import ledgerdb.scraper.util.PausePolicy;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -19,7 +36,6 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.openqa.selenium.remote.RemoteWebDriver;
 
 public class Scraper {
 
@@ -32,11 +48,47 @@ public class Scraper {
     public static final String OPTION_SELENIUM_DRIVER = "selenium-driver";
     public static final String OPTION_LIST = "list";
     public static final String OPTION_KEEP = "keep";
+    public static final String OPTION_BATCH_SIZE = "batch-size";
+    public static final String OPTION_LINK_CACHE_TTL = "link-cache-ttl";
+    public static final String OPTION_UPLOAD_THREADS = "upload-threads";
+    public static final String OPTION_HTTP_CONNECTOR = "http-connector";
+    public static final String OPTION_CONNECT_TIMEOUT = "connect-timeout";
+    public static final String OPTION_READ_TIMEOUT = "read-timeout";
+    public static final String OPTION_MANIFEST = "manifest";
+    public static final String OPTION_JOBS = "jobs";
+    public static final String OPTION_BROWSER_POOL = "browser-pool";
+    public static final String OPTION_BROWSER_MAX_USES = "browser-max-uses";
+    public static final String OPTION_BROWSER_MAX_MEMORY = "browser-max-memory";
+    public static final String OPTION_DAEMON = "daemon";
+    public static final String OPTION_CONTROL_PORT = "control-port";
+    public static final String OPTION_PAUSE = "pause";
+    public static final String OPTION_NAV_RATE = "nav-rate";
+    public static final String OPTION_NAV_BURST = "nav-burst";
+    public static final String OPTION_NAV_CONCURRENCY = "nav-concurrency";
+    public static final String OPTION_NAV_JITTER = "nav-jitter";
+    public static final String OPTION_FULL_SCAN = "full-scan";
+    public static final String OPTION_JOURNAL_RETENTION = "journal-retention";
+    public static final String OPTION_REBUILD_JOURNAL = "rebuild-journal";
+    public static final String OPTION_REPLAY_SPOOL = "replay-spool";
+    public static final String OPTION_CAPTURE = "capture";
+    public static final String OPTION_REPLAY = "replay";
+    public static final String OPTION_METRICS_DIR = "metrics-dir";
+    public static final String OPTION_TRACE_COMMANDS = "trace-commands";
+    public static final String OPTION_JFR = "jfr";
+    public static final String OPTION_STATEMENT_LOG = "statement-log";
+
+    static final String REPLAY_SITE_NAME = "replay";
+    /** Navigations per minute when replaying, i.e. no pacing */
+    private static final double REPLAY_NAV_RATE = 1e6;
 
     private static final String DEFAULT_INSTANCE_NAME = "ledgerdb";
     private static final String DEFAULT_KDBX_FILE = "./ledgerdb-scraper.kdbx";
     private static final String DEFAULT_KDBX_PW = "@ledgerdb-scraper.pw";
     private static final String DEFAULT_SELENIUM_DRIVER = "firefox.FirefoxDriver";
+    private static final int DEFAULT_BATCH_SIZE = 1;
+    private static final int DEFAULT_UPLOAD_THREADS = 1;
+    private static final int DEFAULT_JOBS = 2;
+    private static final int DAEMON_SHUTDOWN_TIMEOUT = 300; // seconds
 
     private final static Options options = new Options();
 
@@ -45,7 +97,7 @@ public class Scraper {
                 .longOpt(OPTION_SITE_NAME)
                 .hasArg()
                 .argName("SITE")
-                .desc("Site name. (Required)")
+                .desc("Site name. (Required, unless --" + OPTION_MANIFEST + " is given)")
                 //.required()
                 .build());
         options.addOption(Option.builder("i")
@@ -89,12 +141,203 @@ public class Scraper {
                 .longOpt(OPTION_KEEP)
                 .desc("Keep browser window open, do not log out.")
                 .build());
+        
+        options.addOption(Option.builder()
+                .longOpt(OPTION_CAPTURE)
+                .hasArg()
+                .argName("DIR")
+                .desc("Save a snapshot of every page visited, with credentials and account numbers scrubbed, to a new directory in DIR.")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt(OPTION_REPLAY)
+                .hasArg()
+                .argName("DIR")
+                .desc("Run the driver against the pages captured in DIR instead of the site, without posting statements, and report its WebDriver commands. Replaces " + OPTION_SITE_NAME + ".")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt(OPTION_METRICS_DIR)
+                .hasArg()
+                .argName("DIR")
+                .desc("Directory the timings and counts of the run are written to at its end, as JSON and in Prometheus text format.\n(Default: " + MetricsExporter.DEFAULT_DIR + ")")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt(OPTION_TRACE_COMMANDS)
+                .hasArg()
+                .optionalArg(true)
+                .argName("N")
+                .desc("Time every WebDriver command and report the N call sites whose commands took longest at the end of the run.\n(Default: " + CommandTrace.DEFAULT_REPORT_SIZE + ")")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt(OPTION_JFR)
+                .hasArg()
+                .argName("FILE")
+                .desc("Record a Java Flight Recorder file with events for logins, page navigations, table extracts, statement uploads and credential lookups, along with the JVM's default events. Requires Java 8u262 or later.")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt(OPTION_STATEMENT_LOG)
+                .desc("Write a JSON line for every statement processed by the server to log/statements/.")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt(OPTION_FULL_SCAN)
+                .desc("Post every visible transaction, ignoring how far accounts were synced before.")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt(OPTION_JOURNAL_RETENTION)
+                .hasArg()
+                .argName("DAYS")
+                .desc("How long statements accepted by the server are remembered locally and not posted again, 0 to disable.\n(Default: " + StatementJournal.DEFAULT_RETENTION_DAYS + ")")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt(OPTION_REBUILD_JOURNAL)
+                .desc("Rebuild the local statement journal from the statements on the server before scraping.")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt(OPTION_REPLAY_SPOOL)
+                .desc("Upload the statements spooled by earlier runs while the server was unavailable, then exit. Uses the instances of the manifest, if any.")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt(OPTION_BATCH_SIZE)
+                .hasArg()
+                .argName("N")
+                .desc("Number of statements posted to server per request.\n(Default: " + DEFAULT_BATCH_SIZE + ")")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt(OPTION_LINK_CACHE_TTL)
+                .hasArg()
+                .argName("HOURS")
+                .desc("How long institution links are cached on disk, 0 to disable.\n(Default: " + AccountIdResolver.DEFAULT_TTL_HOURS + ")")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt(OPTION_UPLOAD_THREADS)
+                .hasArg()
+                .argName("N")
+                .desc("Number of background threads uploading statements, 0 to upload inline.\n(Default: " + DEFAULT_UPLOAD_THREADS + ")")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt(OPTION_HTTP_CONNECTOR)
+                .hasArg()
+                .argName("CONNECTOR")
+                .desc("HTTP connector for server requests, apache or default.\n(Default: " + ServerTransport.DEFAULT_CONNECTOR.name().toLowerCase() + ")")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt(OPTION_CONNECT_TIMEOUT)
+                .hasArg()
+                .argName("SECONDS")
+                .desc("Server connect timeout.\n(Default: " + ServerTransport.DEFAULT_CONNECT_TIMEOUT + ")")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt(OPTION_READ_TIMEOUT)
+                .hasArg()
+                .argName("SECONDS")
+                .desc("Server read timeout.\n(Default: " + ServerTransport.DEFAULT_READ_TIMEOUT + ")")
+                .build());
+        
+        options.addOption(Option.builder("m")
+                .longOpt(OPTION_MANIFEST)
+                .hasArg()
+                .argName("PATH")
+                .desc("Path to JSON job manifest, a list of {\"site\", \"instance\", \"driver\"} objects, to scrape several sites in one run.")
+                .build());
+        options.addOption(Option.builder("j")
+                .longOpt(OPTION_JOBS)
+                .hasArg()
+                .argName("N")
+                .desc("Number of manifest jobs run in parallel, each with its own browser.\n(Default: " + DEFAULT_JOBS + ")")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt(OPTION_BROWSER_POOL)
+                .hasArg()
+                .argName("N")
+                .desc("Number of browsers per driver launched ahead of time and reused between jobs, 0 to start a new browser for each job.\n(Default: " + WebDriverPool.DEFAULT_SIZE + ")")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt(OPTION_BROWSER_MAX_USES)
+                .hasArg()
+                .argName("N")
+                .desc("Number of jobs after which a browser is replaced.\n(Default: " + WebDriverPool.DEFAULT_MAX_USES + ")")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt(OPTION_BROWSER_MAX_MEMORY)
+                .hasArg()
+                .argName("MB")
+                .desc("JavaScript heap size above which a browser is replaced (Chrome only).\n(Default: " + WebDriverPool.DEFAULT_MAX_MEMORY_MB + ")")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt(OPTION_DAEMON)
+                .desc("Keep running and scrape manifest jobs on their \"schedule\" (cron expression, with optional \"jitter\" in seconds). Requires --" + OPTION_MANIFEST + ".")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt(OPTION_CONTROL_PORT)
+                .hasArg()
+                .argName("PORT")
+                .desc("Localhost port accepting daemon commands \"run SITE\", \"status\" and \"stop\", 0 to disable.\n(Default: " + ScraperDaemon.DEFAULT_CONTROL_PORT + ")")
+                .build());
+        
+        options.addOption(Option.builder()
+                .longOpt(OPTION_PAUSE)
+                .hasArg()
+                .argName("MIN-MAX")
+                .desc("Random pause between form inputs, in milliseconds, 0 to disable.\n(Default: " + PausePolicy.DEFAULT_RANGE + ")")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt(OPTION_NAV_RATE)
+                .hasArg()
+                .argName("RATE[,INSTITUTION=RATE...]")
+                .desc("Page navigations per minute allowed for each institution.\n(Default: " + Pacer.DEFAULT_RATE + ")")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt(OPTION_NAV_BURST)
+                .hasArg()
+                .argName("N")
+                .desc("Page navigations an institution may make back to back.\n(Default: " + Pacer.DEFAULT_BURST + ")")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt(OPTION_NAV_CONCURRENCY)
+                .hasArg()
+                .argName("N")
+                .desc("Page navigations in progress at once over all jobs.\n(Default: " + Pacer.DEFAULT_CONCURRENCY + ")")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt(OPTION_NAV_JITTER)
+                .hasArg()
+                .argName("MS")
+                .desc("Maximum random delay before each page navigation, in milliseconds.\n(Default: " + Pacer.DEFAULT_JITTER + ")")
+                .build());
     }
 
     private final CommandLine commandLine;
     
     private final String siteName;
-    private final String instanceName;
+    private final String manifest;
+    private final int parallelJobs;
+    private final int browserPoolSize;
+    private final int browserMaxUses;
+    private final int browserMaxMemory;
+    private final boolean daemon;
+    private final int controlPort;
+    private final PausePolicy pausePolicy;
+    private final Pacer pacer;
+    private final String captureDir;
+    private final String replayDir;
+    private final MetricsExporter metricsExporter;
+    private final Metrics metrics = new Metrics();
+    /** WebDriver command timings, null unless tracing */
+    private final CommandTrace commandTrace;
+    private final int commandTraceSize;
+    
+    /** Transports, journals and spools of the instances, shared by the jobs of a run */
+    private final InstanceResources instances;
+    /** Released when {@link #scrape()} has closed its resources */
+    private final CountDownLatch finished = new CountDownLatch(1);
 
     public Scraper(String... args) throws IOException {
         try {
@@ -107,22 +350,98 @@ public class Scraper {
         }
         if (commandLine.hasOption('h'))
             usage();
+        if (commandLine.hasOption(OPTION_STATEMENT_LOG))
+            StatementEventLog.enable();
         
         siteName = commandLine.getOptionValue(OPTION_SITE_NAME);
-        if (siteName == null) {
+        manifest = commandLine.getOptionValue(OPTION_MANIFEST);
+        captureDir = commandLine.getOptionValue(OPTION_CAPTURE);
+        replayDir = commandLine.getOptionValue(OPTION_REPLAY);
+        metricsExporter = new MetricsExporter(Paths.get(
+                commandLine.getOptionValue(OPTION_METRICS_DIR, MetricsExporter.DEFAULT_DIR)));
+        if (siteName == null && manifest == null) {
             if (commandLine.hasOption(OPTION_LIST))
                 list();
-            else
+            else if (!commandLine.hasOption(OPTION_REPLAY_SPOOL) && replayDir == null)
                 usage("Missing required option: " + OPTION_SITE_NAME);
         }
-
-        if (commandLine.hasOption(OPTION_INSTANCE_NAME))
-            instanceName = DEFAULT_INSTANCE_NAME + "-"
-                    + commandLine.getOptionValue(OPTION_INSTANCE_NAME);
-        else
-            instanceName = DEFAULT_INSTANCE_NAME;
+        if (replayDir != null && (siteName != null || manifest != null || captureDir != null))
+            usage("Option " + OPTION_REPLAY + " excludes " + OPTION_SITE_NAME + ", "
+                    + OPTION_MANIFEST + " and " + OPTION_CAPTURE);
+        if (siteName != null && manifest != null)
+            usage("Options " + OPTION_SITE_NAME + " and " + OPTION_MANIFEST + " are mutually exclusive");
+        parallelJobs = (int)getNumberOption(OPTION_JOBS, DEFAULT_JOBS, 1);
+        daemon = commandLine.hasOption(OPTION_DAEMON);
+        if (daemon && manifest == null)
+            usage("Option " + OPTION_DAEMON + " requires " + OPTION_MANIFEST);
+        controlPort = (int)getNumberOption(OPTION_CONTROL_PORT, ScraperDaemon.DEFAULT_CONTROL_PORT, 0);
+        
+        int batchSize = (int)getNumberOption(OPTION_BATCH_SIZE, DEFAULT_BATCH_SIZE, 1);
+        int journalRetention = (int)getNumberOption(OPTION_JOURNAL_RETENTION, StatementJournal.DEFAULT_RETENTION_DAYS, 0);
+        long linkCacheTtl = getNumberOption(OPTION_LINK_CACHE_TTL, AccountIdResolver.DEFAULT_TTL_HOURS, 0);
+        int uploadThreads = (int)getNumberOption(OPTION_UPLOAD_THREADS, DEFAULT_UPLOAD_THREADS, 0);
+        int connectTimeout = (int)getNumberOption(OPTION_CONNECT_TIMEOUT, ServerTransport.DEFAULT_CONNECT_TIMEOUT, 0);
+        int readTimeout = (int)getNumberOption(OPTION_READ_TIMEOUT, ServerTransport.DEFAULT_READ_TIMEOUT, 0);
+        browserPoolSize = (int)getNumberOption(OPTION_BROWSER_POOL, WebDriverPool.DEFAULT_SIZE, 0);
+        browserMaxUses = (int)getNumberOption(OPTION_BROWSER_MAX_USES, WebDriverPool.DEFAULT_MAX_USES, 1);
+        browserMaxMemory = (int)getNumberOption(OPTION_BROWSER_MAX_MEMORY, WebDriverPool.DEFAULT_MAX_MEMORY_MB, 1);
+        commandTrace = commandLine.hasOption(OPTION_TRACE_COMMANDS) ? new CommandTrace() : null;
+        commandTraceSize = (int)getNumberOption(OPTION_TRACE_COMMANDS, CommandTrace.DEFAULT_REPORT_SIZE, 1);
+        
+        ServerTransport.Connector httpConnector;
+        try {
+            httpConnector = ServerTransport.Connector.valueOf(commandLine.getOptionValue(
+                    OPTION_HTTP_CONNECTOR,
+                    ServerTransport.DEFAULT_CONNECTOR.name()).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            usage("Invalid value for option: " + OPTION_HTTP_CONNECTOR);
+            throw new Error(); // should not happen, usage exits
+        }
+        try {
+            pausePolicy = PausePolicy.parse(commandLine.getOptionValue(OPTION_PAUSE,
+                    replayDir != null ? "0" : PausePolicy.DEFAULT_RANGE));
+        } catch (IllegalArgumentException e) {
+            usage("Invalid value for option: " + OPTION_PAUSE);
+            throw new Error(); // should not happen, usage exits
+        }
+        Map<String, Double> navRates;
+        try {
+            navRates = Pacer.parseRates(commandLine.getOptionValue(OPTION_NAV_RATE,
+                    String.valueOf(replayDir != null ? REPLAY_NAV_RATE : Pacer.DEFAULT_RATE)));
+        } catch (IllegalArgumentException e) {
+            usage("Invalid value for option: " + OPTION_NAV_RATE);
+            throw new Error(); // should not happen, usage exits
+        }
+        Double navRate = navRates.remove(null);
+        pacer = new Pacer(
+                navRate != null ? navRate : Pacer.DEFAULT_RATE,
+                navRates,
+                (int)getNumberOption(OPTION_NAV_BURST, Pacer.DEFAULT_BURST, 1),
+                (int)getNumberOption(OPTION_NAV_CONCURRENCY, Pacer.DEFAULT_CONCURRENCY, 1),
+                getNumberOption(OPTION_NAV_JITTER, replayDir != null ? 0 : Pacer.DEFAULT_JITTER, 0));
+        
+        int maxConnections = (uploadThreads + 1) * parallelJobs;
+        instances = new InstanceResources(
+                instanceInfo -> new ServerTransport(instanceInfo, httpConnector,
+                        connectTimeout, readTimeout, maxConnections),
+                batchSize, linkCacheTtl, uploadThreads,
+                journalRetention, commandLine.hasOption(OPTION_REBUILD_JOURNAL));
     }
 
+    private long getNumberOption(String option, long defaultValue, long minValue) {
+        long value;
+        try {
+            value = Long.parseLong(commandLine.getOptionValue(
+                    option,
+                    String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            value = Long.MIN_VALUE;
+        }
+        if (value < minValue)
+            usage("Invalid value for option: " + option);
+        return value;
+    }
+    
     private void usage(String message) {
         System.err.println(message);
         usage();
@@ -130,117 +449,224 @@ public class Scraper {
     
     private void usage() {
         HelpFormatter formatter = new HelpFormatter();
-        formatter.printHelp("java ledgerdb.scraper.Scraper -s SITE [OPTIONS]", options);
+        formatter.printHelp("java ledgerdb.scraper.Scraper {-s SITE | -m MANIFEST | --replay DIR} [OPTIONS]", options);
         System.exit(2);
     }
     
     private void list() throws IOException {
-        KPScript kpscript = new KPScript(
+        try (KPScript kpscript = new KPScript(
                 commandLine.getOptionValue(OPTION_KDBX_FILE, DEFAULT_KDBX_FILE),
-                commandLine.getOptionValue(OPTION_KDBX_PW, DEFAULT_KDBX_PW));
-        kpscript.listEntries();
+                commandLine.getOptionValue(OPTION_KDBX_PW, DEFAULT_KDBX_PW))) {
+            kpscript.listEntries();
+        }
         System.exit(0);
     }
 
-    private void scrape() throws Exception {
-        logger.info(String.format("Scraper started: site=%s, instance=%s", siteName, instanceName));
-
-        KPScript kpscript = new KPScript(
-                commandLine.getOptionValue(OPTION_KDBX_FILE, DEFAULT_KDBX_FILE),
-                commandLine.getOptionValue(OPTION_KDBX_PW, DEFAULT_KDBX_PW));
-        
-        SiteInfo siteInfo = new SiteInfoBuilder()
-                .set("logon", kpscript.getEntry(siteName, "UserName"))
-                .set("password", kpscript.getEntry(siteName, "Password"))
-                .set("url", kpscript.getEntry(siteName, "URL"))
-                .set("notes", kpscript.getEntry(siteName, "Notes"))
-                .build();
-        
-        InstanceInfo instanceInfo = new ObjectBuilder<>(InstanceInfo.class)
-                .set("url", kpscript.getEntry(instanceName, "URL"))
-                .set("username", kpscript.getEntry(instanceName, "UserName"))
-                .set("password", kpscript.getEntry(instanceName, "Password"))
-                .build();
-        
-        Class scraperDriverClass;
-        {
-            String packageName = Scraper.class.getPackage().getName()
-                    + ".institution."
-                    + siteInfo.institution;
-            ClassPath cp = ClassPath.from(ClassLoader.getSystemClassLoader());
-            scraperDriverClass = cp.getTopLevelClasses(packageName)
-                    .stream()
-                    .map(classInfo -> classInfo.load())
-                    .filter(cc -> ScraperDriverBase.class.isAssignableFrom(cc))
-                    .findFirst()
-                    .get();
+    private List<JobInfo> getJobs() throws IOException {
+        if (manifest == null)
+            return Collections.singletonList(new JobInfo(
+                    replayDir != null ? REPLAY_SITE_NAME : siteName,
+                    commandLine.getOptionValue(OPTION_INSTANCE_NAME),
+                    null, null, 0));
+        List<JobInfo> jobs = new ObjectMapper().readValue(
+                new File(manifest),
+                new TypeReference<List<JobInfo>>() {});
+        for (JobInfo job : jobs) {
+            if (job.site == null)
+                throw new IllegalArgumentException("Missing site in manifest " + manifest);
+        }
+        return jobs;
+    }
+    
+    private String getSeleniumDriver(JobInfo job) {
+        return job.driver != null
+                ? job.driver
+                : commandLine.getOptionValue(OPTION_SELENIUM_DRIVER, DEFAULT_SELENIUM_DRIVER);
+    }
+    
+    static String getInstanceName(String instance) {
+        if (instance == null || instance.equals(DEFAULT_INSTANCE_NAME))
+            return DEFAULT_INSTANCE_NAME;
+        if (instance.startsWith(DEFAULT_INSTANCE_NAME + "-"))
+            return instance;
+        return DEFAULT_INSTANCE_NAME + "-" + instance;
+    }
+    
+    /**
+     * Runs all jobs, at most {@link #OPTION_JOBS} at a time, and logs a
+     * summary. A failed job does not stop the others. In daemon mode, runs
+     * them on schedule until stopped instead.
+     * 
+     * @return results in the order of the jobs, empty in daemon mode
+     */
+    private List<JobResult> scrape() throws Exception {
+        List<JobInfo> jobs = getJobs();
+        
+        if (commandLine.hasOption(OPTION_JFR)) {
+            try {
+                ScraperEvents.start(Paths.get(commandLine.getOptionValue(OPTION_JFR)));
+            } catch (UnsupportedOperationException e) {
+                usage(e.getMessage());
+            }
         }
         
-        ServerSession serverSession = new ServerSession(instanceInfo);
+        // statements are already in the spool files, make sure they hit the disk
+        Runtime.getRuntime().addShutdownHook(new Thread(instances::forceSpools));
         
-        Injector injector = Guice.createInjector(new ScraperModule() {
-            @Override
-            protected void configure() {
-                bind(ScraperDriverBase.class).to(scraperDriverClass);
-                bind(ServerSession.class).toInstance(serverSession);
+        if (commandLine.hasOption(OPTION_REPLAY_SPOOL)) {
+            JobRunner jobRunner = newJobRunner(null);
+            try (KPScript kpscript = openKPScript()) {
+                return jobs.stream()
+                        .map(job -> getInstanceName(job.instance))
+                        .distinct()
+                        .map(instanceName -> jobRunner.replaySpool(kpscript, instanceName))
+                        .collect(Collectors.toList());
+            } finally {
+                try {
+                    instances.close();
+                } finally {
+                    exportMetrics();
+                }
             }
-        });
+        }
         
-        RemoteWebDriver driver = injector.getInstance(RemoteWebDriver.class);
-        ScraperDriverBase scraperDriver = injector.getInstance(ScraperDriverBase.class);
-        try {
-            logger.debug("Running driver for institution: " + siteInfo.institution);
+        List<JobResult> results;
+        try (WebDriverPool pool = new WebDriverPool(browserPoolSize, browserMaxUses, browserMaxMemory, metrics);
+                // replays need no credentials
+                KPScript kpscript = replayDir != null ? null : openKPScript();
+                ReplayServer replayServer = replayDir != null ? ReplayServer.start(Paths.get(replayDir)) : null) {
+            JobRunner jobRunner = newJobRunner(replayServer);
             
-            logger.debug("Connecting to " + siteInfo.url);
-            driver.get(siteInfo.url); 
+            // browsers start while the first jobs read credentials
+            int concurrency = Math.min(parallelJobs, jobs.size());
+            jobs.stream()
+                    .collect(Collectors.groupingBy(this::getSeleniumDriver, Collectors.counting()))
+                    .forEach((driver, count) -> pool.warmUp(driver, (int)Math.min(count, concurrency)));
             
-            scraperDriver.logIn(siteInfo.logon, siteInfo.password);
-            scraperDriver.scrape();
-        } catch (Exception e) {
-            logger.error("Exception occurred: " + e.getMessage(), e);
-            throw e;
-        } finally {
-            serverSession.close();
-            if (!commandLine.hasOption(OPTION_KEEP)) {
-                scraperDriver.close(); // log out
-                driver.quit();
+            Injector injector = Guice.createInjector(new AbstractModule() {
+                @Override
+                protected void configure() {
+                    if (kpscript != null)
+                        bind(KPScript.class).toInstance(kpscript);
+                    bind(WebDriverPool.class).toInstance(pool);
+                    bind(Pacer.class).toInstance(pacer);
+                    bind(Metrics.class).toInstance(metrics);
+                }
+            });
+            
+            try {
+                if (daemon) {
+                    runDaemon(injector, jobRunner, jobs);
+                    return Collections.emptyList();
+                }
+                
+                results = new ArrayList<>();
+                if (jobs.size() == 1) {
+                    // no thread needed, the summary is logged all the same
+                    results.add(jobRunner.runJob(injector, jobs.get(0), getSeleniumDriver(jobs.get(0))));
+                } else {
+                    ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+                    List<Future<JobResult>> futures = new ArrayList<>();
+                    for (JobInfo job : jobs)
+                        futures.add(executor.submit(() -> jobRunner.runJob(injector, job, getSeleniumDriver(job))));
+                    executor.shutdown();
+                    
+                    for (Future<JobResult> future : futures)
+                        results.add(future.get());
+                }
+            } finally {
+                try {
+                    instances.close();
+                } finally {
+                    exportMetrics();
+                    reportCommandTrace();
+                }
             }
         }
-        logger.info("Scraper completed successfully" + System.lineSeparator());
+        
+        StringBuilder summary = new StringBuilder("Summary:");
+        results.forEach(result -> summary.append(System.lineSeparator()).append(result));
+        summary.append(System.lineSeparator()).append(String.format("%d jobs, %d failed, %d processed, %d inserted",
+                results.size(),
+                results.stream().filter(result -> !result.isSuccess()).count(),
+                results.stream().mapToInt(result -> result.countProcessed).sum(),
+                results.stream().mapToInt(result -> result.countInserted).sum()));
+        logger.info(summary);
+        return results;
     }
     
-    abstract class ScraperModule extends AbstractModule {
-        
-        @Provides @Singleton
-        RemoteWebDriver provideRemoteWebDriver()
-                throws ClassNotFoundException,
-                    InstantiationException,
-                    IllegalAccessException {
-
-            String driverClassName = commandLine.getOptionValue(
-                    OPTION_SELENIUM_DRIVER,
-                    DEFAULT_SELENIUM_DRIVER);
-            Class driverClass;
+    /**
+     * Runs the daemon until it is stopped by command or by a signal. On a
+     * signal, running jobs are given time to complete and log out, and
+     * {@link #scrape()} to close the browsers.
+     */
+    private void runDaemon(Injector injector, JobRunner jobRunner, List<JobInfo> jobs) throws Exception {
+        ScraperDaemon scraperDaemon = new ScraperDaemon(jobs, parallelJobs, controlPort, job -> {
+            JobResult result = jobRunner.runJob(injector, job, getSeleniumDriver(job));
+            exportMetrics();
+            return result;
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            scraperDaemon.stop();
             try {
-                driverClass = Class.forName("org.openqa.selenium." + driverClassName);
-            } catch (ClassNotFoundException e) {
-                driverClass = Class.forName(driverClassName);
+                finished.await(DAEMON_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            logger.debug("Instantiating web driver class: " + driverClass.getName());
-            RemoteWebDriver driver = (RemoteWebDriver)driverClass.newInstance();
-            driver.manage().timeouts().implicitlyWait(10, TimeUnit.SECONDS);
-            return driver;
+        }));
+        scraperDaemon.run();
+    }
+    
+    private JobRunner newJobRunner(ReplayServer replayServer) {
+        return new JobRunner(metrics, instances, pausePolicy, replayServer, captureDir, commandTrace,
+                commandLine.hasOption(OPTION_KEEP), commandLine.hasOption(OPTION_FULL_SCAN));
+    }
+    
+    private KPScript openKPScript() throws IOException {
+        try (Metrics.Timing timing = metrics.timer("credential_load_seconds", "step", "open").time()) {
+            return new KPScript(
+                    commandLine.getOptionValue(OPTION_KDBX_FILE, DEFAULT_KDBX_FILE),
+                    commandLine.getOptionValue(OPTION_KDBX_PW, DEFAULT_KDBX_PW));
         }
-        
-    } // class ScraperModule
+    }
+    
+    /**
+     * Writes the metrics of the run so far. Synchronized, as daemon jobs
+     * end concurrently.
+     */
+    private synchronized void exportMetrics() {
+        metrics.gauge("last_run_timestamp_seconds").set(System.currentTimeMillis() / 1000.0);
+        metricsExporter.export(metrics);
+    }
+    
+    private void reportCommandTrace() {
+        if (commandTrace == null)
+            return;
+        String report = commandTrace.report(commandTraceSize);
+        if (report != null)
+            logger.info(report);
+    }
     
     public static void main(String... args) throws Exception {
+        List<JobResult> results;
         try {
             Scraper scraper = new Scraper(args);
-            scraper.scrape();
+            try {
+                results = scraper.scrape();
+            } finally {
+                try {
+                    ScraperEvents.stop();
+                } finally {
+                    scraper.finished.countDown();
+                }
+            }
         } catch (Exception e) {
             logger.fatal("Exception occurred: " + e.getMessage(), e);
             throw e;
         }
+        if (results.size() == 1 && !results.get(0).isSuccess())
+            throw results.get(0).exception;
+        if (results.stream().anyMatch(result -> !result.isSuccess()))
+            System.exit(1);
     }
 }
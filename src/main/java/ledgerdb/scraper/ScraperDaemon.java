@@ -0,0 +1,227 @@
+package ledgerdb.scraper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import ledgerdb.scraper.util.CronSchedule;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs manifest jobs on their cron schedules until stopped.
+ * <p>
+ * A scheduled run runs only the job of the schedule, other jobs of the
+ * same site keep their own schedules. A run of a site is skipped while a
+ * previous run of the same site is still going. Runs can also be triggered
+ * through a line-based control socket bound to the loopback interface,
+ * e.g. {@code echo run rbc | nc localhost PORT}. Commands:
+ * <ul>
+ * <li>{@code run SITE} runs the jobs of the site now
+ * <li>{@code status} lists the jobs with their next and last run
+ * <li>{@code stop} stops the daemon after running jobs complete
+ * </ul>
+ */
+public class ScraperDaemon {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    public static final int DEFAULT_CONTROL_PORT = 48480;
+
+    private final Map<String, List<JobInfo>> jobsBySite;
+    private final Map<JobInfo, CronSchedule> schedules = new LinkedHashMap<>();
+    private final Function<JobInfo, JobResult> runner;
+    private final int controlPort;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService executor;
+    private final Set<String> runningSites = ConcurrentHashMap.newKeySet();
+    private final Map<JobInfo, ZonedDateTime> nextRuns = new ConcurrentHashMap<>();
+    private final Map<JobInfo, JobResult> lastResults = new ConcurrentHashMap<>();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * @param runner runs one job, must not throw
+     * @param controlPort loopback port of the control socket, 0 to disable
+     * @throws IllegalArgumentException if a schedule is malformed
+     */
+    public ScraperDaemon(List<JobInfo> jobs, int parallelJobs, int controlPort,
+            Function<JobInfo, JobResult> runner) {
+        this.jobsBySite = jobs.stream().collect(Collectors.groupingBy(
+                job -> job.site, LinkedHashMap::new, Collectors.toList()));
+        for (JobInfo job : jobs) {
+            if (job.schedule != null)
+                schedules.put(job, CronSchedule.parse(job.schedule));
+        }
+        this.runner = runner;
+        this.controlPort = controlPort;
+        this.executor = Executors.newFixedThreadPool(parallelJobs);
+    }
+
+    /**
+     * Schedules the jobs and blocks until {@link #stop()} is called or the
+     * {@code stop} command is received.
+     */
+    public void run() throws IOException, InterruptedException {
+        ServerSocket serverSocket = null;
+        if (controlPort > 0) {
+            serverSocket = new ServerSocket(controlPort, 10, InetAddress.getLoopbackAddress());
+            Thread thread = new Thread(listen(serverSocket), "control");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        schedules.keySet().forEach(this::scheduleNext);
+        logger.info(String.format("Daemon started: %d jobs, %d scheduled, control port %d",
+                jobsBySite.values().stream().mapToInt(List::size).sum(),
+                schedules.size(),
+                controlPort));
+        try {
+            stopped.await();
+        } finally {
+            if (serverSocket != null)
+                serverSocket.close();
+            timer.shutdownNow();
+            executor.shutdown();
+            logger.info("Daemon stopping, waiting for running jobs");
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void stop() {
+        stopped.countDown();
+    }
+
+    private void scheduleNext(JobInfo job) {
+        ZonedDateTime now = ZonedDateTime.now();
+        ZonedDateTime next = schedules.get(job).next(now);
+        if (job.jitter > 0)
+            next = next.plusSeconds(ThreadLocalRandom.current().nextInt(job.jitter + 1));
+        nextRuns.put(job, next);
+        timer.schedule(() -> {
+            try {
+                scheduleNext(job);
+            } catch (RuntimeException e) {
+                // the timer would swallow it; run this time anyway
+                nextRuns.remove(job);
+                logger.error("Unable to schedule the next run of " + job.site + ": " + e.getMessage(), e);
+            }
+            start(job.site, Collections.singletonList(job), "schedule");
+        }, Duration.between(now, next).toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the jobs of the site in the background unless it is already
+     * running.
+     *
+     * @return false if the site is unknown or already running
+     */
+    public boolean trigger(String site, String reason) {
+        List<JobInfo> jobs = jobsBySite.get(site);
+        if (jobs == null)
+            return false;
+        return start(site, jobs, reason);
+    }
+
+    /**
+     * Runs the jobs, all of the same site, in the background unless the
+     * site is already running.
+     */
+    private boolean start(String site, List<JobInfo> jobs, String reason) {
+        if (!runningSites.add(site)) {
+            logger.warn("Skipping " + reason + " run of " + site + ", previous run is still going");
+            return false;
+        }
+        logger.info("Starting " + reason + " run of " + site);
+        executor.execute(() -> {
+            try {
+                for (JobInfo job : jobs) {
+                    JobResult result = runner.apply(job);
+                    lastResults.put(job, result);
+                    logger.info(result);
+                }
+            } finally {
+                runningSites.remove(site);
+            }
+        });
+        return true;
+    }
+
+    private Runnable listen(ServerSocket serverSocket) {
+        return () -> {
+            while (!serverSocket.isClosed()) {
+                try (Socket socket = serverSocket.accept()) {
+                    socket.setSoTimeout(10000);
+                    BufferedReader in = new BufferedReader(new InputStreamReader(
+                            socket.getInputStream(), StandardCharsets.UTF_8));
+                    PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                            socket.getOutputStream(), StandardCharsets.UTF_8), true);
+                    String line = in.readLine();
+                    if (line != null)
+                        out.println(command(line.trim()));
+                } catch (SocketException e) {
+                    if (!serverSocket.isClosed())
+                        logger.warn("Control socket: " + e.getMessage());
+                } catch (IOException e) {
+                    logger.warn("Control socket: " + e.getMessage());
+                }
+            }
+        };
+    }
+
+    private String command(String line) {
+        String[] words = line.split("\\s+", 2);
+        switch (words[0]) {
+            case "run":
+                if (words.length < 2)
+                    return "ERROR missing site";
+                if (!jobsBySite.containsKey(words[1]))
+                    return "ERROR unknown site " + words[1];
+                return trigger(words[1], "on-demand") ? "OK" : "BUSY";
+            case "status":
+                return status();
+            case "stop":
+                stop();
+                return "OK";
+            default:
+                return "ERROR unknown command " + words[0];
+        }
+    }
+
+    private String status() {
+        StringBuilder sb = new StringBuilder();
+        jobsBySite.forEach((site, jobs) -> {
+            for (JobInfo job : jobs) {
+                ZonedDateTime next = nextRuns.get(job);
+                JobResult last = lastResults.get(job);
+                sb.append(String.format("%-20s %-8s next %-25s last %s%n",
+                        site,
+                        runningSites.contains(site) ? "RUNNING" : "IDLE",
+                        next == null ? "-" : next.withNano(0).toOffsetDateTime(),
+                        last == null ? "-" : (last.isSuccess() ? "OK" : "FAILED " + last.exception.getMessage())));
+            }
+        });
+        return sb.append("END").toString();
+    }
+}
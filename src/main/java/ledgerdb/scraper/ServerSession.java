@@ -2,99 +2,467 @@ package ledgerdb.scraper;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
 import javax.inject.Singleton;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.ServerErrorException;
 import javax.ws.rs.client.Entity;
-import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import ledgerdb.scraper.dto.InstitutionLinkDTO;
 import ledgerdb.scraper.dto.StatementDTO;
+import ledgerdb.scraper.jfr.ScraperEvents;
+import ledgerdb.scraper.jfr.Span;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.glassfish.jersey.client.authentication.HttpAuthenticationFeature;
 
 @Singleton
 public class ServerSession implements AutoCloseable {
     
     private static final Logger logger = LogManager.getLogger();
+    
+    /** Number of batches each upload thread may have waiting. */
+    private static final int UPLOAD_QUEUE_CAPACITY = 32;
+    
+    /** Status printed for statements found in the journal */
+    private static final String STATUS_JOURNALED = "-";
 
-    private final InstanceInfo instanceInfo;
+    private final ServerTransport transport;
+    
+    private final int batchSize;
+    
+    private final AccountIdResolver accountIdResolver;
+    
+    private final StatementUploader uploader;
+    
+    private final StatementJournal journal;
+    
+    private final StatementSpool spool;
     
-    private final Client client;
+    /**
+     * Set when the server became unavailable with a spool in place; further
+     * statements are only written to the spool.
+     */
+    private volatile boolean offline = false;
     
-    private final List<StatementDTO> processedStatements = new ArrayList<>();
+    /**
+     * Number of statements merged so far for the current account, by
+     * {@link StatementDTO#keyExceptSequence()}. Cleared when the driver
+     * moves on to the next account.
+     */
+    private final Map<List<Object>, Integer> occurrences = new HashMap<>();
+    private int occurrencesAccountId;
     
-    private int countProcessed = 0, countInserted = 0;
+    private final List<StatementDTO> pendingStatements = new ArrayList<>();
+    
+    /**
+     * Accounts the server rejected statements for, by the account their
+     * references are linked to now; later statements are moved over.
+     */
+    private final Map<Integer, Integer> relinkedAccountIds = new ConcurrentHashMap<>();
+    
+    private Integer printedAccountId = null;
+    
+    private int countProcessed = 0, countInserted = 0, countJournaled = 0;
+    
+    private int countRequests = 0;
+    private long requestNanos = 0;
+    
+    private volatile LongConsumer requestListener;
+    
+    /** Made up account ids of a dry run, by institution and reference */
+    private final Map<List<String>, Integer> dryRunAccountIds = new HashMap<>();
     
     public ServerSession(InstanceInfo instanceInfo) {
-        this.instanceInfo = instanceInfo;
-        
-        client = ClientBuilder.newClient();
-        HttpAuthenticationFeature feature
-                = HttpAuthenticationFeature.basic(
-                        instanceInfo.username,
-                        instanceInfo.password);
-        client.register(feature);
+        this(new ServerTransport(instanceInfo), 1, AccountIdResolver.DEFAULT_TTL_HOURS, 0, null, null);
+    }
+    
+    /**
+     * @param batchSize maximum number of statements posted in one request;
+     *      1 posts every statement to "statement" as it is merged, larger
+     *      values buffer statements and post them to "statement/batch"
+     * @param linkCacheTtlHours how long institution links are cached on disk,
+     *      0 disables the cache
+     * @param uploadThreads number of background threads uploading statements;
+     *      0 uploads on the calling thread
+     * @param journal statements accepted by the server before, which are
+     *      not posted again; null to post every statement
+     * @param spool write-ahead log of statements to upload, which keeps
+     *      them if the server fails instead of failing the session; null to
+     *      fail on server errors
+     */
+    public ServerSession(ServerTransport transport, int batchSize, long linkCacheTtlHours,
+            int uploadThreads, StatementJournal journal, StatementSpool spool) {
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be positive");
+        Preconditions.checkArgument(uploadThreads >= 0, "uploadThreads must not be negative");
+        this.transport = transport;
+        this.batchSize = batchSize;
+        this.journal = journal;
+        this.spool = spool;
+        accountIdResolver = new AccountIdResolver(transport, linkCacheTtlHours);
         
         // check if able to connect to server url, ignore response status
-        client.target(instanceInfo.url).request().get();
+        try {
+            transport.root().request().get().close();
+        } catch (ProcessingException e) {
+            if (spool == null)
+                throw e;
+            goOffline(e);
+        }
+        
+        uploader = uploadThreads > 0
+                ? new StatementUploader(uploadThreads, UPLOAD_QUEUE_CAPACITY, this::send)
+                : null;
+    }
+    
+    /**
+     * Session which never talks to a server, for replays of captured pages:
+     * account ids are made up, and every statement counts as inserted.
+     */
+    public static ServerSession dryRun() {
+        return new ServerSession();
+    }
+    
+    private ServerSession() {
+        this.transport = null;
+        this.batchSize = 1;
+        this.journal = null;
+        this.spool = null;
+        this.accountIdResolver = null;
+        this.uploader = null;
+    }
+    
+    /**
+     * Loads the links of the institution in one request. With a spool, an
+     * unavailable server switches to the cached links, however old.
+     */
+    public void prefetchAccountIds(String institution) {
+        if (accountIdResolver == null)
+            return;
+        try {
+            accountIdResolver.prefetch(institution);
+        } catch (ProcessingException | ServerErrorException e) {
+            if (spool == null)
+                throw e;
+            goOffline(e);
+        }
     }
     
     public int getAccountId(String institution, String reference) {
-        WebTarget target = client.target(instanceInfo.url)
-                .path("institution_link")
-                .path(institution)
-                .path(reference);
-        Response r = target.request(MediaType.APPLICATION_JSON_TYPE)
-                .get();
+        try (Span span = ScraperEvents.accountLookup(institution, reference)) {
+            int accountId;
+            if (accountIdResolver == null) {
+                synchronized (dryRunAccountIds) {
+                    accountId = dryRunAccountIds.computeIfAbsent(Arrays.asList(institution, reference),
+                            key -> dryRunAccountIds.size() + 1);
+                }
+            } else {
+                try {
+                    accountId = accountIdResolver.getAccountId(institution, reference);
+                } catch (ProcessingException | ServerErrorException e) {
+                    if (spool == null)
+                        throw e;
+                    goOffline(e);
+                    accountId = accountIdResolver.getAccountId(institution, reference);
+                }
+            }
+            span.accountId(accountId);
+            return accountId;
+        }
+    }
+    
+    /**
+     * Queues the statement for upload. Pending statements are posted when
+     * the batch is full, when a statement for another account is merged,
+     * and on {@link #flush()} or {@link #close()}. With upload threads,
+     * posting happens in the background and only blocks while the upload
+     * queue is full. Statements found in the journal are not posted.
+     */
+    public void merge(StatementDTO s) {
+        Integer relinked = relinkedAccountIds.get(s.getAccountId());
+        if (relinked != null)
+            s.setAccountId(relinked);
+        
+        if (!pendingStatements.isEmpty()
+                && Iterables.getLast(pendingStatements).getAccountId() != s.getAccountId())
+            flush();
+        
+        if (occurrences.isEmpty() || occurrencesAccountId != s.getAccountId()) {
+            occurrences.clear();
+            occurrencesAccountId = s.getAccountId();
+        }
+        int sequence = occurrences.merge(s.keyExceptSequence(), 1, Integer::sum);
+        s.setSequence(sequence);
+        
+        if (journal != null && journal.contains(s)) {
+            processed(s, STATUS_JOURNALED);
+            return;
+        }
+        
+        if (spool != null) {
+            try {
+                spool.append(s, this);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to write statement spool", e);
+            }
+        }
+        
+        pendingStatements.add(s);
+        if (pendingStatements.size() >= batchSize)
+            flush();
+    }
+    
+    /**
+     * Uploads the statements left pending in the spool files of earlier
+     * runs, and those earlier sessions of this run left in the spool, in
+     * batches, keeping their sequence numbers.
+     *
+     * @return number of statements recovered from the spool
+     */
+    public int replaySpool() throws IOException {
+        if (spool == null)
+            return 0;
+        List<StatementDTO> recovered = spool.recover(this);
+        if (recovered.isEmpty())
+            return 0;
+        logger.info("Replaying " + recovered.size() + " spooled statements");
+        flush();
+        for (List<StatementDTO> batch : Lists.partition(recovered, batchSize)) {
+            if (uploader != null)
+                uploader.submit(new ArrayList<>(batch));
+            else
+                send(batch);
+        }
+        return recovered.size();
+    }
+    
+    public void mergeBatch(List<StatementDTO> statements) {
+        statements.forEach(this::merge);
+        flush();
+    }
+    
+    public void flush() {
+        if (pendingStatements.isEmpty())
+            return;
+        List<StatementDTO> statements = new ArrayList<>(pendingStatements);
+        pendingStatements.clear();
+        
+        if (spool != null) {
+            try {
+                spool.force();
+            } catch (IOException e) {
+                logger.warn("Unable to sync statement spool: " + e.getMessage());
+            }
+        }
+        
+        if (uploader != null)
+            uploader.submit(statements);
+        else
+            send(statements);
+    }
+    
+    /**
+     * Uploads the statements. With a spool, an unreachable server or a
+     * server error leaves them and all statements merged later in the
+     * spool, to be replayed by a later run. Statements the server rejects,
+     * or answers for in an unexpected way, would be rejected again on every
+     * replay: they are moved out of the spool, and the session fails.
+     */
+    private void send(List<StatementDTO> statements) {
+        if (spool == null) {
+            upload(statements);
+            return;
+        }
+        if (offline)
+            return;
+        try {
+            upload(statements);
+        } catch (ProcessingException | ServerErrorException e) {
+            goOffline(e);
+        } catch (IllegalStateException e) {
+            reject(statements, e);
+            throw e;
+        }
+    }
+    
+    private void reject(List<StatementDTO> statements, Exception e) {
+        // the server does not tell which statement of a batch it rejected
+        logger.error("Server rejected " + statements.size() + " statements, moving them out of the spool: "
+                + e.getMessage());
+        for (StatementDTO s : statements)
+            StatementEventLog.log(s, "rejected");
+        try {
+            spool.reject(statements);
+        } catch (IOException ioe) {
+            logger.warn("Unable to move rejected statements out of the spool: " + ioe.getMessage());
+        }
+    }
+    
+    private void goOffline(Exception e) {
+        if (offline)
+            return;
+        offline = true;
+        accountIdResolver.setOffline(true);
+        logger.error("Server unavailable, spooling statements for a later run: " + e.getMessage());
+    }
+    
+    private void upload(List<StatementDTO> statements) {
+        List<String> statuses;
+        try (Span span = ScraperEvents.statementMerge(statements.get(0).getAccountId())
+                .rows(statements.size())) {
+            if (transport == null)
+                statuses = Collections.nCopies(statements.size(), "1");
+            else
+                statuses = post(statements);
+        }
+        
+        for (int i = 0; i < statements.size(); i++)
+            processed(statements.get(i), statuses.get(i));
+        
+        if (journal != null) {
+            try {
+                journal.add(statements);
+            } catch (IOException e) {
+                logger.warn("Unable to update statement journal: " + e.getMessage());
+            }
+        }
+        
+        if (spool != null) {
+            try {
+                spool.done(statements);
+            } catch (IOException e) {
+                // statements will be posted again, which the server ignores
+                logger.warn("Unable to update statement spool: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Posts the statements, one to "statement" or several to
+     * "statement/batch". If the server answers 404 or 409, the links of
+     * their accounts may be stale: they are looked up again, and the
+     * statements posted once more if an account changed.
+     */
+    private List<String> post(List<StatementDTO> statements) {
+        long started = System.nanoTime();
+        Response r = postRequest(statements);
+        if ((r.getStatus() == 404 || r.getStatus() == 409) && relink(statements)) {
+            r.close();
+            r = postRequest(statements);
+        }
         checkStatus(r);
         
-        InstitutionLinkDTO i = r.readEntity(InstitutionLinkDTO.class);
-        return i.accountId;
+        List<String> statuses;
+        if (statements.size() == 1)
+            statuses = Collections.singletonList(r.readEntity(String.class));
+        else
+            statuses = r.readEntity(new GenericType<List<String>>() {});
+        requestTimed(started);
+        logger.debug("Server response: {}", statuses);
+        Preconditions.checkState(statuses.size() == statements.size(),
+                "Expected %s statuses, got %s", statements.size(), statuses.size());
+        // before any statement is counted as processed
+        for (String status : statuses)
+            Preconditions.checkState(status.matches("^\\d+$"), "Unexpected status %s", status);
+        return statuses;
     }
     
-    public void merge(StatementDTO s) {
-        if (processedStatements.isEmpty()) {
+    private Response postRequest(List<StatementDTO> statements) {
+        if (statements.size() == 1)
+            return transport.statement().request(MediaType.TEXT_PLAIN)
+                    .post(Entity.entity(statements.get(0), MediaType.APPLICATION_JSON_TYPE));
+        GenericEntity<List<StatementDTO>> entity
+                = new GenericEntity<List<StatementDTO>>(statements) {};
+        return transport.statementBatch().request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(entity, MediaType.APPLICATION_JSON_TYPE));
+    }
+    
+    /**
+     * Revalidates the links of the accounts of the statements, and moves
+     * the statements to the accounts their references are linked to now.
+     *
+     * @return whether any statement moved
+     */
+    private boolean relink(List<StatementDTO> statements) {
+        boolean moved = false;
+        Map<Integer, Integer> accountIds = new HashMap<>();
+        for (StatementDTO s : statements) {
+            int accountId = s.getAccountId();
+            int current = accountIds.computeIfAbsent(accountId, accountIdResolver::revalidate);
+            if (current != accountId) {
+                if (relinkedAccountIds.put(accountId, current) == null)
+                    logger.warn("Account " + accountId + " was relinked to account " + current
+                            + " on the server, moving its statements");
+                s.setAccountId(current);
+                moved = true;
+            }
+        }
+        return moved;
+    }
+    
+    private void requestTimed(long started) {
+        long nanos = System.nanoTime() - started;
+        synchronized (this) {
+            countRequests++;
+            requestNanos += nanos;
+        }
+        LongConsumer listener = requestListener;
+        if (listener != null)
+            listener.accept(nanos);
+    }
+    
+    /**
+     * Sets a listener called with the duration, in nanoseconds, of every
+     * successful statement request, on the thread which made it.
+     */
+    public void setRequestListener(LongConsumer listener) {
+        this.requestListener = listener;
+    }
+    
+    private synchronized void processed(StatementDTO s, String status) {
+        if (printedAccountId == null) {
             System.out.print(s.getAccountId());
-        } else if (Iterables.getLast(processedStatements).getAccountId() != s.getAccountId()) {
+        } else if (printedAccountId != s.getAccountId()) {
             System.out.println();
             System.out.print(s.getAccountId());
         }
+        printedAccountId = s.getAccountId();
         
-        int sequence = (int)processedStatements.stream()
-                .filter(si2 -> si2.equalsExceptSequence(s))
-                .count()
-                + 1;
-        s.setSequence(sequence);
-
-        WebTarget target = client.target(instanceInfo.url).path("statement");
-        
-        Response r = target.request(MediaType.TEXT_PLAIN)
-                .post(Entity.entity(s, MediaType.APPLICATION_JSON_TYPE));
-        checkStatus(r);
-        
-        String status = r.readEntity(String.class);
-        logger.debug("Server response: " + status);
         System.out.print(' ');
         System.out.print(status);
-        Preconditions.checkState(status.matches("^\\d+$"));
-        
-        processedStatements.add(s);
+        StatementEventLog.log(s, status.equals(STATUS_JOURNALED) ? "journaled"
+                : status.equals("0") ? "existing" : "inserted");
         countProcessed++;
+        if (status.equals(STATUS_JOURNALED)) {
+            countJournaled++;
+            return;
+        }
         if (!status.equals("0"))
             countInserted++;
     }
     
-    private void checkStatus(Response r) {
+    static void checkStatus(Response r) {
         String message = r.getStatus() + " " + r.getStatusInfo().getReasonPhrase();
         if (r.getStatus() == 200) { // 200 OK
             logger.debug(message);
         } else {
             logger.error(message);
+            // the server is down or overloaded, rather than rejecting the request
+            if (r.getStatusInfo().getFamily() == Response.Status.Family.SERVER_ERROR) {
+                r.close();
+                throw new ServerErrorException("Server request failed: " + message, r.getStatus());
+            }
             try {
                 String body = r.readEntity(String.class);
                 throw new IllegalStateException("Server request failed: " + body);
@@ -104,12 +472,43 @@ public class ServerSession implements AutoCloseable {
         }
     }
     
-    public int getCountProcessed() { return countProcessed; }
-    public int getCountInserted() { return countInserted; }
+    public synchronized int getCountProcessed() { return countProcessed; }
+    public synchronized int getCountInserted() { return countInserted; }
+    
+    /** Number of statements left in the spool for a later run. */
+    public int getCountSpooled() {
+        return spool == null ? 0 : spool.getPendingCount();
+    }
 
     @Override
     public void close() throws Exception {
+        try {
+            try {
+                flush();
+            } finally {
+                if (uploader != null)
+                    uploader.close(); // wait for queued statements
+            }
+        } finally {
+            // statements not uploaded go to the next replay of the spool
+            if (spool != null) {
+                spool.release(this);
+                try {
+                    spool.force();
+                } catch (IOException e) {
+                    logger.warn("Unable to sync statement spool: " + e.getMessage());
+                }
+            }
+        }
         System.out.println();
-        logger.info(String.format("%d processed, %d inserted",
-                countProcessed, countInserted));    }
+        synchronized (this) {
+            logger.info(String.format("%d processed, %d inserted, %d skipped as already posted",
+                    countProcessed, countInserted, countJournaled));
+            if (countRequests > 0)
+                logger.info(String.format("%d statement requests, %.1f ms average",
+                        countRequests, requestNanos / 1e6 / countRequests));
+        }
+        if (offline)
+            logger.warn(String.format("%d statements spooled, not uploaded", getCountSpooled()));
+    }
 }
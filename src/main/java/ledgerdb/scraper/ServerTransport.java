@@ -0,0 +1,100 @@
+package ledgerdb.scraper;
+
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.RequestEntityProcessing;
+import org.glassfish.jersey.client.authentication.HttpAuthenticationFeature;
+
+/**
+ * HTTP client for one LedgerDB instance, with explicit timeouts and
+ * targets for the endpoints used by {@link ServerSession}.
+ * <p>
+ * The {@link Connector#APACHE apache} connector keeps a pool of keep-alive
+ * connections, sized for the number of upload threads. The
+ * {@link Connector#DEFAULT default} connector is Jersey's
+ * HttpURLConnection based one. Neither speaks HTTP/2; Jersey 2.24 has no
+ * connector that does on Java 8.
+ */
+public class ServerTransport implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    public enum Connector { APACHE, DEFAULT }
+
+    public static final Connector DEFAULT_CONNECTOR = Connector.APACHE;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10; // seconds
+    public static final int DEFAULT_READ_TIMEOUT = 60; // seconds
+
+    private final String url;
+    private final Client client;
+
+    private final WebTarget rootTarget;
+    private final WebTarget statementTarget;
+    private final WebTarget statementBatchTarget;
+    private final WebTarget institutionLinkTarget;
+
+    public ServerTransport(InstanceInfo instanceInfo) {
+        this(instanceInfo, DEFAULT_CONNECTOR,
+                DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, 2);
+    }
+
+    /**
+     * @param connectTimeout connect timeout in seconds
+     * @param readTimeout read timeout in seconds
+     * @param maxConnections size of the connection pool
+     */
+    public ServerTransport(InstanceInfo instanceInfo, Connector connector,
+            int connectTimeout, int readTimeout, int maxConnections) {
+        this.url = instanceInfo.url;
+
+        ClientConfig config = new ClientConfig();
+        config.property(ClientProperties.CONNECT_TIMEOUT,
+                (int)TimeUnit.SECONDS.toMillis(connectTimeout));
+        config.property(ClientProperties.READ_TIMEOUT,
+                (int)TimeUnit.SECONDS.toMillis(readTimeout));
+        if (connector == Connector.APACHE) {
+            PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager();
+            pool.setMaxTotal(maxConnections);
+            pool.setDefaultMaxPerRoute(maxConnections);
+            config.property(ApacheClientProperties.CONNECTION_MANAGER, pool);
+            // send Content-Length instead of chunked bodies
+            config.property(ClientProperties.REQUEST_ENTITY_PROCESSING,
+                    RequestEntityProcessing.BUFFERED);
+            config.connectorProvider(new ApacheConnectorProvider());
+        }
+        logger.debug("Using " + connector + " connector, " + maxConnections + " connections");
+
+        client = ClientBuilder.newClient(config);
+        HttpAuthenticationFeature feature
+                = HttpAuthenticationFeature.basic(
+                        instanceInfo.username,
+                        instanceInfo.password);
+        client.register(feature);
+
+        rootTarget = client.target(url);
+        statementTarget = rootTarget.path("statement");
+        statementBatchTarget = statementTarget.path("batch");
+        institutionLinkTarget = rootTarget.path("institution_link");
+    }
+
+    public String getUrl() { return url; }
+
+    public WebTarget root() { return rootTarget; }
+    public WebTarget statement() { return statementTarget; }
+    public WebTarget statementBatch() { return statementBatchTarget; }
+    public WebTarget institutionLink() { return institutionLinkTarget; }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+}
@@ -0,0 +1,78 @@
+package ledgerdb.scraper;
+
+import ledgerdb.scraper.dto.StatementDTO;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Configurator;
+
+/**
+ * One JSON line per statement processed by the server, for analysis
+ * outside the scraper:
+ * <pre>
+ * {"time":1491000000000,"accountId":42,"date":"2017-03-31","amount":-12.34,"sequence":1,"result":"inserted","description":"TIM HORTONS"}
+ * </pre>
+ * Result is "inserted", "existing", "journaled" (skipped, posted
+ * before) or "rejected" (moved out of the spool). Lines go to the logger
+ * {@link #LOGGER_NAME}, which is off unless {@link #enable()}d;
+ * log4j2.xml sends it to its own file.
+ * <p>
+ * Lines are built in a per-thread buffer, which the logger copies, so a
+ * statement costs no garbage beyond what log4j itself allocates.
+ */
+final class StatementEventLog {
+
+    static final String LOGGER_NAME = "ledgerdb.scraper.statements";
+
+    private static final Logger logger = LogManager.getLogger(LOGGER_NAME);
+
+    private static final ThreadLocal<StringBuilder> buffers
+            = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private StatementEventLog() {}
+
+    static void enable() {
+        Configurator.setLevel(LOGGER_NAME, Level.INFO);
+    }
+
+    static void log(StatementDTO s, String result) {
+        if (!logger.isInfoEnabled())
+            return;
+        StringBuilder sb = buffers.get();
+        sb.setLength(0);
+        sb.append("{\"time\":").append(System.currentTimeMillis())
+                .append(",\"accountId\":").append(s.getAccountId())
+                .append(",\"date\":\"").append(s.getDate())
+                .append("\",\"amount\":").append(s.getAmount())
+                .append(",\"sequence\":").append(s.getSequence())
+                .append(",\"result\":\"").append(result)
+                .append("\",\"description\":");
+        appendString(sb, s.getDescription());
+        sb.append('}');
+        logger.info(sb);
+    }
+
+    private static void appendString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int)c));
+                    else
+                        sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
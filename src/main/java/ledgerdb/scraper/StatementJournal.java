@@ -0,0 +1,306 @@
+package ledgerdb.scraper;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import ledgerdb.scraper.dto.StatementDTO;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Local record of the statements the server has accepted, so that
+ * statements posted by an earlier run need not be posted again.
+ * <p>
+ * The journal is a memory-mapped file of fixed-size entries: statement
+ * date (epoch day), account id and a 64-bit hash of the statement as
+ * compared by {@link StatementDTO#equalsExceptSequence} plus its sequence.
+ * Entries are only ever appended, under an exclusive file lock, so several
+ * processes can share the file; each picks up the entries appended by the
+ * others before looking up a statement, under a shared lock. Within one JVM, open each file
+ * only once and share the instance, since file locks are held per process.
+ * <p>
+ * On open, and whenever appending has doubled the number of entries since
+ * the last check, if most entries are older than the retention period or
+ * duplicates, the live entries are compacted in place to the start of the
+ * file, the header's generation is bumped, which makes other processes
+ * reload, and the file is truncated. A crash during compaction can only
+ * leave duplicate entries behind.
+ */
+public class StatementJournal implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    public static final int DEFAULT_RETENTION_DAYS = 400;
+
+    private static final int MAGIC = 0x4c44424a; // "LDBJ"
+    private static final int VERSION = 1;
+    private static final int OFFSET_COUNT = 8;
+    private static final int OFFSET_GENERATION = 12;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 16;
+    private static final int GROWTH = 4096 * ENTRY_SIZE;
+    private static final int MIN_COMPACT_COUNT = 1024;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final Path file;
+    private final int retentionDays;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    /** Number of entries read into {@link #hashes} */
+    private int count = 0;
+    private int generation = 0;
+    private final Set<Long> hashes = new HashSet<>();
+    /** Number of entries at which {@link #add} checks for compaction */
+    private int compactAt = MIN_COMPACT_COUNT;
+
+    private StatementJournal(Path file, int retentionDays) throws IOException {
+        this.file = file;
+        this.retentionDays = retentionDays;
+        if (file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        channel = FileChannel.open(file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Opens or creates the journal and compacts it if worthwhile.
+     *
+     * @param retentionDays entries of statements older than this are
+     *      dropped on compaction
+     */
+    public static StatementJournal open(Path file, int retentionDays) throws IOException {
+        StatementJournal journal = new StatementJournal(file, retentionDays);
+        try {
+            journal.initialize();
+        } catch (IOException | RuntimeException e) {
+            journal.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    private synchronized void initialize() throws IOException {
+        try (FileLock lock = channel.lock()) {
+            if (channel.size() < HEADER_SIZE) {
+                map(HEADER_SIZE + GROWTH);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(OFFSET_COUNT, 0);
+                buffer.putInt(OFFSET_GENERATION, 0);
+            } else {
+                map(channel.size());
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                    throw new IOException("Not a statement journal: " + file);
+            }
+            refresh();
+            compact();
+        }
+        logger.debug("Opened " + file + " with " + hashes.size() + " statements");
+    }
+
+    private void map(long size) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Reads entries appended by other processes, or everything if another
+     * process compacted the file. Must be called with the file lock held,
+     * shared at least, so that no other process compacts or truncates the
+     * file meanwhile.
+     */
+    private void refresh() throws IOException {
+        long size = channel.size();
+        // reading a mapping past the end of the file fails
+        if (buffer.capacity() > size)
+            map(size);
+        int newGeneration = buffer.getInt(OFFSET_GENERATION);
+        if (newGeneration != generation) {
+            generation = newGeneration;
+            count = 0;
+            hashes.clear();
+        }
+        int newCount = buffer.getInt(OFFSET_COUNT);
+        if (newCount <= count)
+            return;
+        if (HEADER_SIZE + (long)newCount * ENTRY_SIZE > size)
+            throw new IOException("Statement journal " + file + " shorter than its "
+                    + newCount + " entries");
+        if (HEADER_SIZE + (long)newCount * ENTRY_SIZE > buffer.capacity())
+            map(size);
+        for (int i = count; i < newCount; i++)
+            hashes.add(buffer.getLong(HEADER_SIZE + i * ENTRY_SIZE + 8));
+        count = newCount;
+    }
+
+    /**
+     * Compacts the file if most entries are expired or duplicates. Must be
+     * called with the file lock held.
+     */
+    private void compact() throws IOException {
+        if (count < MIN_COMPACT_COUNT)
+            return;
+        try {
+            compactEntries();
+        } finally {
+            compactAt = Math.max(MIN_COMPACT_COUNT, count * 2);
+        }
+    }
+
+    private void compactEntries() throws IOException {
+        long oldest = LocalDate.now().minusDays(retentionDays).toEpochDay();
+        List<long[]> live = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            int position = HEADER_SIZE + i * ENTRY_SIZE;
+            long epochDay = buffer.getInt(position);
+            long hash = buffer.getLong(position + 8);
+            if (epochDay >= oldest && seen.add(hash))
+                live.add(new long[] { epochDay, buffer.getInt(position + 4), hash });
+        }
+        if (live.size() > count / 2)
+            return;
+
+        for (int i = 0; i < live.size(); i++)
+            putEntry(i, (int)live.get(i)[0], (int)live.get(i)[1], live.get(i)[2]);
+        buffer.putInt(OFFSET_COUNT, live.size());
+        buffer.putInt(OFFSET_GENERATION, ++generation);
+        buffer.force();
+        logger.info("Compacted " + file + " from " + count + " to " + live.size() + " entries");
+        count = live.size();
+        hashes.clear();
+        hashes.addAll(seen);
+
+        long size = HEADER_SIZE + (long)count * ENTRY_SIZE + GROWTH;
+        if (size < channel.size()) {
+            channel.truncate(size);
+            map(size);
+        }
+    }
+
+    private void putEntry(int index, int epochDay, int accountId, long hash) {
+        int position = HEADER_SIZE + index * ENTRY_SIZE;
+        buffer.putInt(position, epochDay);
+        buffer.putInt(position + 4, accountId);
+        buffer.putLong(position + 8, hash);
+    }
+
+    private static long hash(StatementDTO s) {
+        return HASH.newHasher()
+                .putInt(s.getAccountId())
+                .putString(s.getDate(), StandardCharsets.UTF_8)
+                .putByte((byte)0)
+                .putString(String.valueOf(s.getAmount()), StandardCharsets.UTF_8)
+                .putByte((byte)0)
+                .putString(String.valueOf(s.getDescription()), StandardCharsets.UTF_8)
+                .putByte((byte)0)
+                .putInt(s.getSequence())
+                .hash()
+                .asLong();
+    }
+
+    /**
+     * @return true if the server has accepted the statement before
+     */
+    public synchronized boolean contains(StatementDTO s) {
+        try (FileLock lock = channel.lock(0, Long.MAX_VALUE, true)) {
+            refresh();
+        } catch (IOException e) {
+            logger.warn("Unable to read " + file + ": " + e.getMessage());
+        }
+        return hashes.contains(hash(s));
+    }
+
+    /**
+     * Appends the statements which are not in the journal yet.
+     */
+    public synchronized void add(List<StatementDTO> statements) throws IOException {
+        try (FileLock lock = channel.lock()) {
+            refresh();
+            List<StatementDTO> added = new ArrayList<>();
+            for (StatementDTO s : statements) {
+                if (hashes.add(hash(s)))
+                    added.add(s);
+            }
+            if (added.isEmpty())
+                return;
+            long required = HEADER_SIZE + (long)(count + added.size()) * ENTRY_SIZE;
+            long size = channel.size();
+            if (required > size)
+                map(required + GROWTH);
+            for (int i = 0; i < added.size(); i++) {
+                StatementDTO s = added.get(i);
+                putEntry(count + i,
+                        (int)LocalDate.parse(s.getDate()).toEpochDay(),
+                        s.getAccountId(),
+                        hash(s));
+            }
+            // entries first, so that readers never see a count of unwritten entries
+            count += added.size();
+            buffer.putInt(OFFSET_COUNT, count);
+            if (count >= compactAt)
+                compact();
+        }
+    }
+
+    /**
+     * Replaces the journal content with the statements stored on the
+     * server.
+     *
+     * @return number of statements now in the journal
+     */
+    public int rebuild(ServerTransport transport) throws IOException {
+        Response r = transport.statement().request(MediaType.APPLICATION_JSON_TYPE).get();
+        List<StatementDTO> statements;
+        try {
+            ServerSession.checkStatus(r);
+            ObjectMapper mapper = new ObjectMapper()
+                    .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+            try (InputStream in = r.readEntity(InputStream.class)) {
+                statements = mapper.readValue(in, mapper.getTypeFactory()
+                        .constructCollectionType(List.class, StatementDTO.class));
+            }
+        } finally {
+            r.close();
+        }
+        synchronized (this) {
+            try (FileLock lock = channel.lock()) {
+                generation = buffer.getInt(OFFSET_GENERATION) + 1;
+                buffer.putInt(OFFSET_COUNT, 0);
+                buffer.putInt(OFFSET_GENERATION, generation);
+                count = 0;
+                hashes.clear();
+            }
+        }
+        add(statements);
+        logger.info("Rebuilt " + file + " from " + statements.size() + " server statements");
+        return statements.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (buffer != null)
+            buffer.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,305 @@
+package ledgerdb.scraper;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import ledgerdb.scraper.dto.StatementDTO;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Write-ahead log of statements on their way to the server.
+ * <p>
+ * Every statement is appended to the spool as a "put" line before it is
+ * uploaded, and a "done" line follows once the server has answered for it.
+ * Each process writes its own JSON-lines file, locked while the process
+ * runs. {@link #recover} takes over the statements left without "done" in
+ * the files of processes which are gone, so that they can be uploaded
+ * again, along with the statements of this process released by sessions
+ * which ended before the server answered for them. Once no statement is
+ * pending, the file is truncated; a file without pending statements is
+ * deleted on {@link #close()}. Statements the server rejected are moved to
+ * a "rejected-" file next to the spool file, to be looked into by hand,
+ * rather than being replayed again and again.
+ * <p>
+ * Lines are written straight to the file, so they survive the JVM being
+ * killed; {@link #force()} also makes them survive a crash of the machine.
+ */
+public class StatementSpool implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final String PREFIX = "spool-";
+    private static final String REJECTED_PREFIX = "rejected-";
+    private static final String SUFFIX = ".jsonl";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Path dir;
+    private final String instance;
+    private final Path file;
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    /** Statements not acknowledged yet */
+    private final Map<StatementDTO, Entry> pending = new IdentityHashMap<>();
+    private long nextId = 1;
+
+    private StatementSpool(Path dir, String instance) throws IOException {
+        this.dir = dir;
+        this.instance = instance;
+        Files.createDirectories(dir);
+        this.file = dir.resolve(PREFIX + instance + "-"
+                + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss")) + "-"
+                + Integer.toHexString(ThreadLocalRandom.current().nextInt()) + SUFFIX);
+        this.channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+        this.lock = channel.lock();
+    }
+
+    /**
+     * Creates a new spool file for the instance in the directory.
+     */
+    public static StatementSpool open(Path dir, String instance) throws IOException {
+        return new StatementSpool(dir, instance);
+    }
+
+    /**
+     * Moves the pending statements of spool files of the same instance
+     * which are not locked by a running process into this spool, and
+     * deletes those files. The pending statements of this spool which
+     * were {@link #release released} are recovered too, without being
+     * logged again.
+     *
+     * @param owner session the recovered statements are uploaded by
+     * @return the recovered statements, to be uploaded again
+     */
+    public synchronized List<StatementDTO> recover(Object owner) throws IOException {
+        List<StatementDTO> recovered = new ArrayList<>();
+        pending.forEach((s, entry) -> {
+            if (entry.owner == null) {
+                entry.owner = owner;
+                recovered.add(s);
+            }
+        });
+        if (!recovered.isEmpty())
+            logger.info("Retrying " + recovered.size() + " statements from " + file);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + instance + "-*" + SUFFIX)) {
+            for (Path other : files) {
+                if (other.equals(file))
+                    continue;
+                Map<Long, Record> records = read(other);
+                if (records == null)
+                    continue; // in use
+                for (Record record : records.values()) {
+                    StatementDTO s = record.toStatement();
+                    append(s, owner);
+                    recovered.add(s);
+                }
+                force();
+                Files.delete(other);
+                logger.info("Recovered " + records.size() + " statements from " + other);
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * @return pending records by id, or null if the file is locked
+     */
+    private static Map<Long, Record> read(Path path) throws IOException {
+        try (FileChannel other = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                FileLock otherLock = other.tryLock()) {
+            if (otherLock == null)
+                return null;
+            Map<Long, Record> records = new LinkedHashMap<>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(other), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty())
+                    continue;
+                Record record;
+                try {
+                    record = mapper.readValue(line, Record.class);
+                } catch (IOException e) {
+                    // a torn last line, written when the process died
+                    logger.warn("Ignoring malformed line in " + path + ": " + line);
+                    continue;
+                }
+                if (Record.PUT.equals(record.op))
+                    records.put(record.id, record);
+                else if (Record.DONE.equals(record.op))
+                    records.remove(record.id);
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Logs the statement as about to be uploaded.
+     *
+     * @param owner session uploading the statement
+     */
+    public synchronized void append(StatementDTO s, Object owner) throws IOException {
+        long id = nextId++;
+        pending.put(s, new Entry(id, owner));
+        write(Record.put(id, s));
+    }
+
+    /**
+     * Logs the statements as acknowledged by the server, and truncates the
+     * file once no statement is pending.
+     */
+    public synchronized void done(List<StatementDTO> statements) throws IOException {
+        for (StatementDTO s : statements) {
+            Entry entry = pending.remove(s);
+            if (entry != null)
+                write(Record.done(entry.id));
+        }
+        if (pending.isEmpty() && channel.size() > 0)
+            channel.truncate(0);
+    }
+
+    /**
+     * Moves the statements out of the spool, into the file of rejected
+     * statements of this spool, in the format of its "put" lines.
+     */
+    public synchronized void reject(List<StatementDTO> statements) throws IOException {
+        Path rejected = file.resolveSibling(REJECTED_PREFIX
+                + file.getFileName().toString().substring(PREFIX.length()));
+        StringBuilder lines = new StringBuilder();
+        for (StatementDTO s : statements) {
+            Entry entry = pending.get(s);
+            if (entry != null)
+                lines.append(mapper.writeValueAsString(Record.put(entry.id, s))).append('\n');
+        }
+        Files.write(rejected, lines.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        logger.warn("Moved " + statements.size() + " rejected statements to " + rejected);
+        done(statements);
+    }
+
+    /**
+     * Hands the pending statements of the session over to the next
+     * {@link #recover} of this spool.
+     */
+    public synchronized void release(Object owner) {
+        for (Entry entry : pending.values()) {
+            if (entry.owner == owner)
+                entry.owner = null;
+        }
+    }
+
+    private void write(Record record) throws IOException {
+        byte[] line = (mapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(line);
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /** Number of statements not acknowledged yet. */
+    public synchronized int getPendingCount() { return pending.size(); }
+
+    /**
+     * Flushes the file to the storage device.
+     */
+    public synchronized void force() throws IOException {
+        if (channel.isOpen())
+            channel.force(false);
+    }
+
+    /**
+     * Closes the spool, deleting its file if no statement is pending.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen())
+            return;
+        channel.force(false);
+        lock.release();
+        channel.close();
+        if (pending.isEmpty()) {
+            Files.delete(file);
+        } else {
+            logger.warn(pending.size() + " statements not uploaded, kept in " + file
+                    + " for the next run or --" + Scraper.OPTION_REPLAY_SPOOL);
+        }
+    }
+
+    private static class Entry {
+        final long id;
+        /** Session uploading the statement, null once released */
+        Object owner;
+
+        Entry(long id, Object owner) {
+            this.id = id;
+            this.owner = owner;
+        }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    static class Record {
+        static final String PUT = "put";
+        static final String DONE = "done";
+
+        public String op;
+        public long id;
+        public String date;
+        public Integer accountId;
+        public BigDecimal amount;
+        public String description;
+        public Integer sequence;
+
+        static Record put(long id, StatementDTO s) {
+            Record record = new Record();
+            record.op = PUT;
+            record.id = id;
+            record.date = s.getDate();
+            record.accountId = s.getAccountId();
+            record.amount = s.getAmount();
+            record.description = s.getDescription();
+            record.sequence = s.getSequence();
+            return record;
+        }
+
+        static Record done(long id) {
+            Record record = new Record();
+            record.op = DONE;
+            record.id = id;
+            return record;
+        }
+
+        StatementDTO toStatement() {
+            StatementDTO s = new StatementDTO();
+            s.setDate(LocalDate.parse(date));
+            s.setAccountId(accountId);
+            s.setAmount(amount);
+            s.setDescription(description);
+            s.setSequence(sequence);
+            return s;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ledgerdb.scraper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import ledgerdb.scraper.dto.StatementDTO;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Uploads batches of statements on background threads, so that the
+ * scraper driver can keep navigating while the server is busy.
+ * <p>
+ * Each worker thread drains its own bounded queue. All batches of an
+ * account go to the same queue, so statements of one account are uploaded
+ * in the order they were merged. When a queue is full, {@link #submit}
+ * blocks until the server catches up.
+ */
+class StatementUploader implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final List<StatementDTO> END = Collections.emptyList();
+
+    private final Consumer<List<StatementDTO>> upload;
+
+    private final List<BlockingQueue<List<StatementDTO>>> queues = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    private boolean closed = false;
+
+    /**
+     * @param parallelism number of worker threads
+     * @param capacity number of batches each worker may have waiting
+     * @param upload uploads one batch, called on a worker thread
+     */
+    StatementUploader(int parallelism, int capacity, Consumer<List<StatementDTO>> upload) {
+        this.upload = upload;
+        for (int i = 0; i < parallelism; i++) {
+            BlockingQueue<List<StatementDTO>> queue = new ArrayBlockingQueue<>(capacity);
+            Thread worker = new Thread(() -> work(queue), "uploader-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+            queues.add(queue);
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Queues a batch of statements of a single account, blocking while the
+     * queue of that account is full.
+     *
+     * @throws IllegalStateException if an earlier upload failed
+     */
+    void submit(List<StatementDTO> statements) {
+        checkFailure();
+        if (closed)
+            throw new IllegalStateException("Uploader is closed");
+        int accountId = statements.get(0).getAccountId();
+        BlockingQueue<List<StatementDTO>> queue
+                = queues.get(Math.floorMod(accountId, queues.size()));
+        try {
+            queue.put(statements);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+    }
+
+    private void work(BlockingQueue<List<StatementDTO>> queue) {
+        for (;;) {
+            List<StatementDTO> statements;
+            try {
+                statements = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (statements == END)
+                return;
+            if (failure.get() != null)
+                continue; // discard, the session is failing anyway
+            try {
+                upload.accept(statements);
+            } catch (RuntimeException e) {
+                logger.error("Upload failed: " + e.getMessage(), e);
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    private void checkFailure() {
+        RuntimeException e = failure.get();
+        if (e != null)
+            throw new IllegalStateException("Upload failed: " + e.getMessage(), e);
+    }
+
+    /**
+     * Waits until all queued batches are uploaded and stops the workers.
+     *
+     * @throws IllegalStateException if any upload failed
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            try {
+                for (BlockingQueue<List<StatementDTO>> queue : queues)
+                    queue.put(END);
+                for (Thread worker : workers)
+                    worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted", e);
+            }
+        }
+        checkFailure();
+    }
+}
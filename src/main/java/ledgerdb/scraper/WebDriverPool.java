@@ -0,0 +1,277 @@
+package ledgerdb.scraper;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import ledgerdb.scraper.metrics.Metrics;
+import ledgerdb.scraper.util.Waiter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * Keeps launched browsers around between scraping jobs.
+ * <p>
+ * Browsers are launched ahead of time by {@link #warmUp}, handed out by
+ * {@link #borrow} and given back by {@link #release}, which clears
+ * cookies, web storage and extra windows before the browser is reused. A
+ * browser is quit instead when it fails the health check, has been used
+ * {@code maxUses} times, its JavaScript heap has grown past
+ * {@code maxMemoryMB} (only reported by Chrome), or the pool already holds
+ * {@code size} idle browsers of its kind.
+ * <p>
+ * Cookies can only be deleted for the domain of the page the browser is on
+ * when it is released, which is the bank's domain after logging out. Keep
+ * {@code maxUses} low if a site sets cookies on other domains.
+ */
+public class WebDriverPool implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    public static final int DEFAULT_SIZE = 1;
+    public static final int DEFAULT_MAX_USES = 10;
+    public static final int DEFAULT_MAX_MEMORY_MB = 1024;
+
+    private final int size;
+    private final int maxUses;
+    private final long maxMemoryBytes;
+    private final Metrics metrics;
+
+    /** Idle or launching browsers by driver class name. */
+    private final Map<String, Deque<CompletableFuture<PooledDriver>>> idle = new HashMap<>();
+    private final Map<RemoteWebDriver, PooledDriver> borrowed = new IdentityHashMap<>();
+
+    private boolean closed = false;
+
+    /**
+     * @param size maximum number of idle browsers kept per driver class,
+     *      0 quits every browser after use
+     */
+    public WebDriverPool(int size, int maxUses, int maxMemoryMB, Metrics metrics) {
+        this.size = size;
+        this.maxUses = maxUses;
+        this.maxMemoryBytes = maxMemoryMB * 1024L * 1024L;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts launching browsers in the background, so that up to
+     * {@code count} (but at most the pool size) are ready for the next
+     * {@link #borrow} calls.
+     */
+    public synchronized void warmUp(String driverClassName, int count) {
+        Deque<CompletableFuture<PooledDriver>> deque = idle(driverClassName);
+        while (deque.size() < Math.min(count, size)) {
+            deque.add(CompletableFuture.supplyAsync(() -> launch(driverClassName)));
+        }
+    }
+
+    /**
+     * Returns an idle browser of the given driver class, launching one if
+     * none is available.
+     *
+     * @param driverClassName driver class name, prefix "org.openqa.selenium."
+     *      may be omitted
+     */
+    public RemoteWebDriver borrow(String driverClassName) {
+        // includes waiting for a browser still launching
+        try (Metrics.Timing timing = metrics.timer("browser_borrow_seconds", "driver", driverClassName).time()) {
+            for (;;) {
+                CompletableFuture<PooledDriver> future;
+                synchronized (this) {
+                    if (closed)
+                        throw new IllegalStateException("Pool is closed");
+                    future = idle(driverClassName).pollFirst();
+                }
+                PooledDriver pooled;
+                if (future == null) {
+                    pooled = launch(driverClassName);
+                } else {
+                    try {
+                        pooled = future.join();
+                    } catch (CompletionException e) {
+                        logger.warn("Browser launch failed: " + e.getCause().getMessage());
+                        continue;
+                    }
+                    if (!isHealthy(pooled)) {
+                        quit(pooled);
+                        continue;
+                    }
+                }
+                pooled.uses++;
+                pooled.driver.manage().timeouts().implicitlyWait(Waiter.IMPLICIT_WAIT, TimeUnit.MILLISECONDS);
+                synchronized (this) {
+                    borrowed.put(pooled.driver, pooled);
+                }
+                logger.debug("Borrowed " + pooled + ", use " + pooled.uses);
+                return pooled.driver;
+            }
+        }
+    }
+
+    /**
+     * Gives a browser back to the pool, or quits it if it should not be
+     * reused.
+     */
+    public void release(RemoteWebDriver driver) {
+        PooledDriver pooled;
+        synchronized (this) {
+            pooled = borrowed.remove(driver);
+        }
+        if (pooled == null) {
+            driver.quit();
+            return;
+        }
+
+        String reason = null;
+        if (pooled.uses >= maxUses) {
+            reason = "used " + pooled.uses + " times";
+        } else if (getUsedHeapSize(driver) > maxMemoryBytes) {
+            reason = "heap exceeds " + (maxMemoryBytes >> 20) + " MB";
+        } else if (!clean(pooled)) {
+            reason = "cleanup failed";
+        }
+        if (reason == null) {
+            synchronized (this) {
+                Deque<CompletableFuture<PooledDriver>> deque = idle(pooled.className);
+                if (!closed && deque.size() < size) {
+                    deque.addFirst(CompletableFuture.completedFuture(pooled));
+                    logger.debug("Released " + pooled);
+                    return;
+                }
+            }
+            reason = "pool is full";
+        }
+        logger.debug("Recycling " + pooled + ": " + reason);
+        quit(pooled);
+    }
+
+    /**
+     * Forgets a browser without quitting it, e.g. to leave its window open.
+     */
+    public synchronized void abandon(RemoteWebDriver driver) {
+        borrowed.remove(driver);
+    }
+
+    private Deque<CompletableFuture<PooledDriver>> idle(String driverClassName) {
+        return idle.computeIfAbsent(driverClassName, k -> new ArrayDeque<>());
+    }
+
+    private PooledDriver launch(String driverClassName) {
+        Class<?> driverClass;
+        try {
+            try {
+                driverClass = Class.forName("org.openqa.selenium." + driverClassName);
+            } catch (ClassNotFoundException e) {
+                driverClass = Class.forName(driverClassName);
+            }
+            logger.debug("Instantiating web driver class: " + driverClass.getName());
+            RemoteWebDriver driver;
+            try (Metrics.Timing timing = metrics.timer("browser_launch_seconds", "driver", driverClassName).time()) {
+                driver = (RemoteWebDriver)driverClass.getDeclaredConstructor().newInstance();
+            }
+            return new PooledDriver(driverClassName, driver);
+        } catch (InvocationTargetException e) {
+            // the browser failed to start
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            throw new IllegalStateException("Unable to launch web driver " + driverClassName, e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Unable to instantiate web driver " + driverClassName, e);
+        }
+    }
+
+    private static boolean isHealthy(PooledDriver pooled) {
+        try {
+            return !pooled.driver.getWindowHandles().isEmpty();
+        } catch (RuntimeException e) {
+            logger.debug("Health check failed for " + pooled + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static long getUsedHeapSize(RemoteWebDriver driver) {
+        try {
+            Object size = driver.executeScript(
+                    "return window.performance && window.performance.memory"
+                    + " ? window.performance.memory.usedJSHeapSize : -1;");
+            return size instanceof Number ? ((Number)size).longValue() : -1;
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static boolean clean(PooledDriver pooled) {
+        RemoteWebDriver driver = pooled.driver;
+        try {
+            Set<String> handles = driver.getWindowHandles();
+            String first = handles.iterator().next();
+            for (String handle : handles) {
+                if (!handle.equals(first)) {
+                    driver.switchTo().window(handle);
+                    driver.close();
+                }
+            }
+            driver.switchTo().window(first);
+            driver.manage().deleteAllCookies();
+            driver.executeScript("try { window.localStorage.clear(); } catch (e) {}"
+                    + " try { window.sessionStorage.clear(); } catch (e) {}");
+            driver.get("about:blank");
+            return true;
+        } catch (RuntimeException e) {
+            logger.debug("Cleanup failed for " + pooled + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void quit(PooledDriver pooled) {
+        try {
+            pooled.driver.quit();
+        } catch (RuntimeException e) {
+            logger.debug("Quit failed for " + pooled + ": " + e.getMessage());
+        }
+    }
+
+    /** Quits all idle browsers. Borrowed browsers are left alone. */
+    @Override
+    public void close() {
+        List<CompletableFuture<PooledDriver>> futures = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            idle.values().forEach(futures::addAll);
+            idle.clear();
+        }
+        for (CompletableFuture<PooledDriver> future : futures) {
+            try {
+                quit(future.join());
+            } catch (CompletionException e) {
+                // launch failed, nothing to quit
+            }
+        }
+    }
+
+    private static class PooledDriver {
+        final String className;
+        final RemoteWebDriver driver;
+        int uses = 0;
+
+        PooledDriver(String className, RemoteWebDriver driver) {
+            this.className = className;
+            this.driver = driver;
+        }
+
+        @Override
+        public String toString() {
+            return className + "@" + Integer.toHexString(System.identityHashCode(driver));
+        }
+    }
+}
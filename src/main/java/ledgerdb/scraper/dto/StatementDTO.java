@@ -4,7 +4,10 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Objects;
 import java.math.BigDecimal;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import ledgerdb.scraper.parse.Dates;
+import ledgerdb.scraper.parse.Descriptions;
 
 public class StatementDTO {
     
@@ -13,10 +16,10 @@ public class StatementDTO {
         public String getDate() { return date; }
         private void setDate(String date) { this.date = date; }
         public void setDate(LocalDate date) {
-            setDate(date.format(DateTimeFormatter.ISO_LOCAL_DATE));
+            setDate(date.toString()); // ISO_LOCAL_DATE
         }
         public void setDate(String date, String format) {
-            setDate(LocalDate.parse(date, DateTimeFormatter.ofPattern(format)));
+            setDate(Dates.parse(date, format));
         }
         
         private int accountId;
@@ -30,9 +33,7 @@ public class StatementDTO {
         private String description;
         public String getDescription() { return description; }
         public void setDescription(String description) {
-            this.description = description
-                    .replaceAll("\\s", " ")
-                    .trim();
+            this.description = Descriptions.normalize(description);
         }
         
         //TODO - remove column from db
@@ -47,4 +48,12 @@ public class StatementDTO {
                     Objects.equal(this.accountId, that.accountId) &&
                     Objects.equal(this.amount, that.amount) &&
                     Objects.equal(this.description, that.description);
+        }
+        
+        /**
+         * Returns a hashable key which is equal for two statements if and
+         * only if they are {@link #equalsExceptSequence equal except sequence}.
+         */
+        public List<Object> keyExceptSequence() {
+            return Arrays.asList(date, accountId, amount, description);
         }}
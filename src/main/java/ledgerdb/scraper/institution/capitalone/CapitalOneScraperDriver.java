@@ -3,14 +3,21 @@ package ledgerdb.scraper.institution.capitalone;
 import static com.google.common.base.Preconditions.checkState;
 import java.math.BigDecimal;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.inject.Inject;
+import ledgerdb.scraper.HtmlTable;
 import ledgerdb.scraper.ScraperDriverBase;
 import ledgerdb.scraper.ServerSession;
 import ledgerdb.scraper.dto.StatementDTO;
-import ledgerdb.scraper.util.Sleeper;
+import ledgerdb.scraper.jfr.ScraperEvents;
+import ledgerdb.scraper.jfr.Span;
+import ledgerdb.scraper.metrics.Metrics;
+import ledgerdb.scraper.parse.Amounts;
+import ledgerdb.scraper.registry.Institution;
+import ledgerdb.scraper.util.Pacer;
+import ledgerdb.scraper.util.Waiter;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openqa.selenium.By;
@@ -19,6 +26,7 @@ import org.openqa.selenium.interactions.Actions;
 import org.openqa.selenium.remote.RemoteWebDriver;
 import org.openqa.selenium.support.ui.Select;
 
+@Institution("capitalone")
 public class CapitalOneScraperDriver extends ScraperDriverBase {
 
     private static final String INSTITUTION = "capitalone";
@@ -27,20 +35,27 @@ public class CapitalOneScraperDriver extends ScraperDriverBase {
     
     private final RemoteWebDriver driver;
     private final ServerSession serverSession;
+    private final Waiter waiter;
+    private final Pacer pacer;
+    private final Metrics metrics;
     
     @Inject
     public CapitalOneScraperDriver(
             RemoteWebDriver driver,
-            ServerSession serverSession) {
+            ServerSession serverSession,
+            Waiter waiter,
+            Pacer pacer,
+            Metrics metrics) {
         this.driver = driver;
         this.serverSession = serverSession;
+        this.waiter = waiter;
+        this.pacer = pacer;
+        this.metrics = metrics;
     }
     
     @Override
     public void scrape() {
-        Sleeper.sleepBetween(10, 20, TimeUnit.SECONDS);
-        
-        WebElement e = driver.findElement(By.xpath("//span[@id='acct0_number']"));
+        WebElement e = waiter.until(By.xpath("//span[@id='acct0_number']"));
         String ref = e.getText();
         checkState(ref.startsWith("..."));
         ref = ref.substring(3);
@@ -50,56 +65,76 @@ public class CapitalOneScraperDriver extends ScraperDriverBase {
         
         // Transactions & Details
         
-        e = driver.findElement(By.xpath("//a[@id='transactions_link']"));
-        e.click();
-        Sleeper.sleepBetween(10, 20, TimeUnit.SECONDS);
-        driver.findElement(By.xpath("//h1[.='Transactions & Details']"));
-        logger.debug("Transactions & Details");
+        WebElement table;
+        try (Metrics.Timing timing = metrics.timer("account_navigation_seconds", "institution", INSTITUTION).time();
+                Span span = ScraperEvents.pageNavigation(INSTITUTION, "Transactions & Details").account(ref)) {
+            e = driver.findElement(By.xpath("//a[@id='transactions_link']"));
+            try (Pacer.Permit permit = pacer.acquire(INSTITUTION)) {
+                e.click();
+                waiter.until(By.xpath("//h1[.='Transactions & Details']"));
+                waiter.pageReady();
+            }
+            logger.debug("Transactions & Details");
+            
+            table = driver.findElement(By.xpath("//div[@id='postedTransactionTable']"));
+        }
         
-        WebElement table = driver.findElement(By.xpath("//div[@id='postedTransactionTable']"));
-        processTable(table, accountId);
+        // includes opening the drawer of every row
+        try (Metrics.Timing timing = metrics.timer("row_extraction_seconds", "institution", INSTITUTION).time();
+                Span span = ScraperEvents.tableExtract(INSTITUTION).account(ref).accountId(accountId)) {
+            int count = processTable(table, accountId);
+            span.rows(count);
+            metrics.counter("rows_total", "institution", INSTITUTION).add(count);
+        }
     }
     
-    private void processTable(WebElement table, int accountId) {
+    /**
+     * @return number of rows processed
+     */
+    private int processTable(WebElement table, int accountId) {
         List<WebElement> rows = table.findElements(By.xpath("./div[@role='row']"));
+        HtmlTable cells = HtmlTable.extract(driver, table,
+                "./div[@role='row']", "./div[@role='gridcell']");
+        checkState(cells.size() == rows.size());
         logger.debug("Found " + rows.size() + " rows in Posted Transactions Table.");
         
         for (int i = 0; i < rows.size(); i++) {
             WebElement row = rows.get(i);
-            List<WebElement> cells = row.findElements(By.xpath("./div[@role='gridcell']"));
-            checkState(cells.size() == 5);
+            String[] text = cells.getText(i);
+            checkState(text.length == 5);
             
-            WebElement e = cells.get(0).findElement(By.xpath("./a[.='Open Drawer']"));
+            WebElement e = row.findElement(By.xpath("./div[@role='gridcell'][1]/a[.='Open Drawer']"));
             click(e);
             e = findElement(row, "./following-sibling::div//div[starts-with(@class,'info')]//span[@class='appears_as']");
             
             StatementDTO s = new StatementDTO();
             s.setAccountId(accountId);
             
-            String date = cells.get(0).getText();
-            date = date.replaceAll("\\s", "");
-            date = date.replaceFirst("^[A-Za-z]+", ""); // Open Drawer, Close Drawer
-            s.setDate(date, "M/dd/yy");
+            String date = text[0];
+            int start = StringUtils.indexOfAny(date, "0123456789"); // after Open Drawer, Close Drawer
+            checkState(start >= 0);
+            s.setDate(date.substring(start).trim(), "M/dd/yy");
             
-            //s.setDescription(cells.get(2).getText());
+            //s.setDescription(text[2]);
             s.setDescription(e.getText());
             
-            //TODO - set "accountable" user id -> cells.get(3).getText()
+            //TODO - set "accountable" user id -> text[3]
             
-            String amount = cells.get(4).getText();
-            checkState(amount.matches("^-?\\$[\\d,]+\\.\\d\\d$"));
-            amount = amount.replaceAll("[^-\\d.]", "");
-            s.setAmount(new BigDecimal(amount).negate());
+            // charges positive, payments negative, two decimals always
+            BigDecimal amount = Amounts.parseDollarsOrNull(text[4], true);
+            checkState(amount != null, "Not an amount: %s", text[4]);
+            s.setAmount(amount.negate());
 
             serverSession.merge(s);
-            logger.debug("Done merged transaction " + (i + 1) + " out of " + rows.size());
+            logger.debug("Done merged transaction {} out of {}", i + 1, rows.size());
         }
+        return rows.size();
     }
     
     @Override
     protected void logIn(String logon, String password) {
-        Sleeper.sleepBetween(10, 20, TimeUnit.SECONDS);
-        driver.findElement(By.xpath("//label[.='Sign In']"));
+        waiter.pageReady();
+        waiter.until(By.xpath("//label[.='Sign In']"));
         logger.debug("Sign In");
         
         WebElement input;
@@ -110,11 +145,12 @@ public class CapitalOneScraperDriver extends ScraperDriverBase {
         input.sendKeys(password);
         
         input = driver.findElement(By.xpath("//button[.='Sign In']"));
-        input.click();
         logger.debug("Logging in...");
-        
-        //TODO: check error message, if login failed
-        driver.findElement(By.xpath("//h1/span[starts-with(text(),'Welcome')]"));
+        try (Pacer.Permit permit = pacer.acquire(INSTITUTION)) {
+            input.click();
+            //TODO: check error message, if login failed
+            driver.findElement(By.xpath("//h1/span[starts-with(text(),'Welcome')]"));
+        }
         
         logger.debug("Logged in");
         super.logIn();
@@ -125,8 +161,10 @@ public class CapitalOneScraperDriver extends ScraperDriverBase {
         logger.debug("Logging out...");
         
         WebElement link = driver.findElement(By.xpath("//a[.='Sign Out']"));
-        link.click();
-        driver.findElement(By.xpath("//h1[.=\"You've logged out of online banking.\"]"));
+        try (Pacer.Permit permit = pacer.acquire(INSTITUTION)) {
+            link.click();
+            driver.findElement(By.xpath("//h1[.=\"You've logged out of online banking.\"]"));
+        }
         
         logger.debug("Logged out");
         super.logOut();
@@ -138,11 +176,6 @@ public class CapitalOneScraperDriver extends ScraperDriverBase {
     }
     
     private WebElement findElement(WebElement parent, String xpath) {
-        for (int i = 0; i < 10; i++) {
-            List<WebElement> a = parent.findElements(By.xpath(xpath));
-            if (!a.isEmpty()) break;
-            Sleeper.sleepBetween(1, 1, TimeUnit.SECONDS);
-        }
-        return parent.findElement(By.xpath(xpath));
+        return waiter.until(xpath, d -> parent.findElement(By.xpath(xpath)));
     }
 }
@@ -3,35 +3,55 @@ package ledgerdb.scraper.institution.mbna;
 import static com.google.common.base.Preconditions.checkState;
 import java.math.BigDecimal;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.inject.Inject;
+import ledgerdb.scraper.HtmlTable;
 import ledgerdb.scraper.ScraperDriverBase;
 import ledgerdb.scraper.ServerSession;
 import ledgerdb.scraper.dto.StatementDTO;
-import ledgerdb.scraper.util.Sleeper;
+import ledgerdb.scraper.jfr.ScraperEvents;
+import ledgerdb.scraper.jfr.Span;
+import ledgerdb.scraper.metrics.Metrics;
+import ledgerdb.scraper.parse.Amounts;
+import ledgerdb.scraper.registry.Institution;
+import ledgerdb.scraper.util.Pacer;
+import ledgerdb.scraper.util.Waiter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openqa.selenium.By;
+import org.openqa.selenium.TimeoutException;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.remote.RemoteWebDriver;
 
+@Institution("mbna")
 public class MbnaScraperDriver extends ScraperDriverBase {
 
     private static final String INSTITUTION = "mbna";
     
     private static final Logger logger = LogManager.getLogger();
     
+    /** How long to wait for the challenge question to be answered */
+    private static final long CHALLENGE_TIMEOUT = 150000; // ms
+    
     private final RemoteWebDriver driver;
     private final ServerSession serverSession;
+    private final Waiter waiter;
+    private final Pacer pacer;
+    private final Metrics metrics;
     
     @Inject
     public MbnaScraperDriver(
             RemoteWebDriver driver,
-            ServerSession serverSession) {
+            ServerSession serverSession,
+            Waiter waiter,
+            Pacer pacer,
+            Metrics metrics) {
         this.driver = driver;
         this.serverSession = serverSession;
+        this.waiter = waiter;
+        this.pacer = pacer;
+        this.metrics = metrics;
     }
     
     @Override
@@ -55,31 +75,40 @@ public class MbnaScraperDriver extends ScraperDriverBase {
         
         int accountId = serverSession.getAccountId(INSTITUTION, reference);
         
-        link.click();
-        
         // Snapshot
         
-        logger.debug("Snapshot");
-        driver.findElements(By.xpath("//h1[normalize-space(.)='Snapshot']"));
-        driver.findElement(By.xpath("//h3[@id='recentActivitySummary']"));
+        try (Metrics.Timing timing = metrics.timer("account_navigation_seconds", "institution", INSTITUTION).time();
+                Span span = ScraperEvents.pageNavigation(INSTITUTION, "Snapshot").account(reference)) {
+            try (Pacer.Permit permit = pacer.acquire(INSTITUTION)) {
+                link.click();
+                logger.debug("Snapshot");
+                waiter.pageReady();
+                driver.findElement(By.xpath("//h3[@id='recentActivitySummary']"));
+            }
+        }
         scrapeTransactionTable(accountId);
         
         // Statements
         
         logger.debug("Statements");
-        WebElement e = driver.findElement(By.xpath("//li[@id='tab-statements']"));
-        e.click();
-        driver.findElement(By.xpath("//h1[normalize-space(.)='Statements']"));
-        driver.findElement(By.xpath("//h3[normalize-space(.)='Statement activity']"));
-        e = driver.findElement(By.xpath("//div[normalize-space(.)='Statement closing date:']"));
-        e = e.findElement(By.xpath("./following-sibling::div"));
-        logger.debug("Statement closing date: " + e.getText());
+        try (Metrics.Timing timing = metrics.timer("account_navigation_seconds", "institution", INSTITUTION).time();
+                Span span = ScraperEvents.pageNavigation(INSTITUTION, "Statements").account(reference)) {
+            WebElement e = driver.findElement(By.xpath("//li[@id='tab-statements']"));
+            try (Pacer.Permit permit = pacer.acquire(INSTITUTION)) {
+                e.click();
+                driver.findElement(By.xpath("//h1[normalize-space(.)='Statements']"));
+            }
+            driver.findElement(By.xpath("//h3[normalize-space(.)='Statement activity']"));
+            e = driver.findElement(By.xpath("//div[normalize-space(.)='Statement closing date:']"));
+            e = e.findElement(By.xpath("./following-sibling::div"));
+            logger.debug("Statement closing date: " + e.getText());
+        }
         scrapeTransactionTable(accountId);
     }
     
     @Override
     protected void logIn(String logon, String password) {
-        Sleeper.sleepBetween(4, 7, TimeUnit.SECONDS);
+        waiter.pageReady();
         
         WebElement input;
         input = driver.findElement(By.xpath("//input[@id='usernameInput']"));
@@ -89,14 +118,17 @@ public class MbnaScraperDriver extends ScraperDriverBase {
             input = driver.findElement(By.xpath("//input[@id='usernameInput']")); //XXX
         }
         input.sendKeys(logon);
-        Sleeper.sleepBetween(1, 2, TimeUnit.SECONDS);
+        waiter.pause();
         input = driver.findElement(By.xpath("//input[@id='passwordInput']"));
         input.sendKeys(password);
-        Sleeper.sleepBetween(1, 2, TimeUnit.SECONDS);
+        waiter.pause();
         
         input = driver.findElement(By.xpath("//input[@id='login' and @value='Login' and @type='submit']"));
-        input.click();
         logger.debug("Logging in...");
+        try (Pacer.Permit permit = pacer.acquire(INSTITUTION)) {
+            input.click();
+            waiter.pageReady();
+        }
         
         // //p/strong[normalize-space(.)='Identity not recognized']
         // //p starts-with "Please enter the answer to your challenge question"
@@ -104,32 +136,28 @@ public class MbnaScraperDriver extends ScraperDriverBase {
         // What is your favourite bakery?</label>
         // <input id="MFAChallengeForm:answer" type="password" ...
         String marker = "//h1[normalize-space(.)='My Accounts']";
-        for (int retry = 0;; retry++) {
-            driver.findElements(By.xpath(marker));
-
-            List<WebElement> a;
-            a = driver.findElements(By.xpath("//h1[normalize-space(.)='Identity not recognized']"));
-            if (a.size() > 0) {
-                if (retry >= 10) {
-                    throw new IllegalStateException("Identity not recognized");
-                }
-                logger.info("Identity not recognized" + (retry == 0 ? "" : ", retry # " + retry));
-                logger.info("Please enter the answer to your challenge question and click Continue...");
-                Sleeper.sleepBetween(10, 15, TimeUnit.SECONDS);
-                continue;
-            }
-            
-            a = driver.findElements(By.xpath("//div[@id='errorMessage']"));
-            if (a.size() > 0) {
-                logger.error("Login failed: " + a.get(0).getText());
-                throw new IllegalStateException("Login failed");
+        String identity = "//h1[normalize-space(.)='Identity not recognized']";
+        String error = "//div[@id='errorMessage']";
+        waiter.until(By.xpath(marker + " | " + identity + " | " + error));
+        
+        if (!waiter.probe(By.xpath(identity)).isEmpty()) {
+            logger.info("Identity not recognized");
+            logger.info("Please enter the answer to your challenge question and click Continue...");
+            try {
+                waiter.until(By.xpath(marker + " | " + error), CHALLENGE_TIMEOUT);
+            } catch (TimeoutException e) {
+                throw new IllegalStateException("Identity not recognized", e);
             }
-            
-
-            driver.findElement(By.xpath(marker));
-            break;
         }
         
+        List<WebElement> a = waiter.probe(By.xpath(error));
+        if (a.size() > 0) {
+            logger.error("Login failed: " + a.get(0).getText());
+            throw new IllegalStateException("Login failed");
+        }
+        
+        driver.findElement(By.xpath(marker));
+        
         logger.debug("Logged in successfully");
         super.logIn();
     }
@@ -138,52 +166,61 @@ public class MbnaScraperDriver extends ScraperDriverBase {
     protected void logOut() {
         logger.debug("Logging out...");
         WebElement a = driver.findElement(By.xpath("//a[text()='Logout']"));
-        a.click();
-        driver.findElement(By.xpath("//p/strong[text()='You have successfully logged out!']"));
+        try (Pacer.Permit permit = pacer.acquire(INSTITUTION)) {
+            a.click();
+            driver.findElement(By.xpath("//p/strong[text()='You have successfully logged out!']"));
+        }
         logger.debug("Logged out");
         super.logOut();
     }
     
     private void scrapeTransactionTable(int accountId) {
-        WebElement e = driver.findElement(By.xpath("//table[@id='transactionTable']"));
-        
-        List<WebElement> rows = e.findElements(By.xpath(".//tr"));
-        checkState(rows.size() > 0);
-        logger.debug("Got " + (rows.size() - 1) + " transactions");
-        
-        List<WebElement> head = rows.get(0).findElements(By.xpath(".//th"));
-        checkState(head.size() == 5);
-        checkState(head.get(0).getText().replaceAll("\\s+", " ").startsWith("Transaction date"));
-        checkState(head.get(1).getText().replaceAll("\\s+", " ").startsWith("Posting date"));
-        checkState(head.get(2).getText().startsWith("Description"));
-        checkState(head.get(3).getText().replaceAll("\\s+", " ").startsWith("Reference number"));
-        checkState(head.get(4).getText().startsWith("Amount"));
-
-        for (int i = 1; i < rows.size(); i++) {
-            logger.debug("Parsing transaction " + i + " out of " + (rows.size() - 1));
-            
-            List<WebElement> a = rows.get(i).findElements(By.xpath("./td"));
-            checkState(a.size() == 5);
+        try (Metrics.Timing timing = metrics.timer("row_extraction_seconds", "institution", INSTITUTION).time();
+                Span span = ScraperEvents.tableExtract(INSTITUTION).accountId(accountId)) {
+            WebElement e = driver.findElement(By.xpath("//table[@id='transactionTable']"));
             
-            StatementDTO s = new StatementDTO();
-            s.setAccountId(accountId);
+            HtmlTable table = HtmlTable.extract(driver, e, ".//tr", 1, ".//th", "./td");
+            checkState(table.size() > 0);
+            logger.debug("Got " + (table.size() - 1) + " transactions");
             
-            if (a.get(1).getText().isEmpty() && "TEMP".equals(a.get(3).getText())) {
-                logger.debug("Skipped TEMP transaction at row " + i);
-                continue;
-            }
-            s.setDate(a.get(1).getText(), "MM/dd/yyyy");
-            
-            s.setDescription(a.get(2).getText().trim());
-            
-            String amount = a.get(4).getText();
-            checkState(amount.matches("^-?\\$[\\d,]+(\\.\\d\\d)?$"));
-            amount = amount.replaceAll("[^-\\d.]", "");
-            s.setAmount(new BigDecimal(amount).negate());
-            
-            serverSession.merge(s);
+            String[] head = table.getText(0);
+            checkState(head.length == 5);
+            checkState(head[0].replaceAll("\\s+", " ").startsWith("Transaction date"));
+            checkState(head[1].replaceAll("\\s+", " ").startsWith("Posting date"));
+            checkState(head[2].startsWith("Description"));
+            checkState(head[3].replaceAll("\\s+", " ").startsWith("Reference number"));
+            checkState(head[4].startsWith("Amount"));
 
-            logger.debug("Done merged transaction " + i);
+            int merged = 0;
+            for (int i = 1; i < table.size(); i++) {
+                logger.debug("Parsing transaction {} out of {}", i, table.size() - 1);
+                
+                String[] a = table.getText(i);
+                checkState(a.length == 5);
+                
+                StatementDTO s = new StatementDTO();
+                s.setAccountId(accountId);
+                
+                if (a[1].isEmpty() && "TEMP".equals(a[3])) {
+                    logger.debug("Skipped TEMP transaction at row {}", i);
+                    continue;
+                }
+                s.setDate(a[1], "MM/dd/yyyy");
+                
+                s.setDescription(a[2]);
+                
+                // charges positive, payments negative, decimals dropped on whole amounts
+                BigDecimal amount = Amounts.parseDollarsOrNull(a[4], false);
+                checkState(amount != null, "Not an amount: %s", a[4]);
+                s.setAmount(amount.negate());
+                
+                serverSession.merge(s);
+                merged++;
+
+                logger.debug("Done merged transaction {}", i);
+            }
+            span.rows(merged);
+            metrics.counter("rows_total", "institution", INSTITUTION).add(merged);
         }
     }
 }
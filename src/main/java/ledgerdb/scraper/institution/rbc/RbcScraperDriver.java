@@ -1,17 +1,23 @@
 package ledgerdb.scraper.institution.rbc;
 
 import static com.google.common.base.Preconditions.checkState;
-import java.math.BigDecimal;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.inject.Inject;
+import ledgerdb.scraper.HtmlTable;
 import ledgerdb.scraper.ScraperDriverBase;
 import ledgerdb.scraper.ServerSession;
 import ledgerdb.scraper.dto.StatementDTO;
-import ledgerdb.scraper.util.Sleeper;
-import org.apache.commons.lang3.StringUtils;
+import ledgerdb.scraper.jfr.ScraperEvents;
+import ledgerdb.scraper.jfr.Span;
+import ledgerdb.scraper.metrics.Metrics;
+import ledgerdb.scraper.parse.Amounts;
+import ledgerdb.scraper.parse.Descriptions;
+import ledgerdb.scraper.registry.Institution;
+import ledgerdb.scraper.sync.SyncTracker;
+import ledgerdb.scraper.util.Pacer;
+import ledgerdb.scraper.util.Waiter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openqa.selenium.By;
@@ -19,6 +25,7 @@ import org.openqa.selenium.WebElement;
 import org.openqa.selenium.interactions.Actions;
 import org.openqa.selenium.remote.RemoteWebDriver;
 
+@Institution("rbc")
 public class RbcScraperDriver extends ScraperDriverBase {
     
     private static final String INSTITUTION = "rbc";
@@ -27,13 +34,25 @@ public class RbcScraperDriver extends ScraperDriverBase {
     
     private final RemoteWebDriver driver;
     private final ServerSession serverSession;
+    private final Waiter waiter;
+    private final Pacer pacer;
+    private final SyncTracker syncTracker;
+    private final Metrics metrics;
     
     @Inject
     public RbcScraperDriver(
             RemoteWebDriver driver,
-            ServerSession serverSession) {
+            ServerSession serverSession,
+            Waiter waiter,
+            Pacer pacer,
+            SyncTracker syncTracker,
+            Metrics metrics) {
         this.driver = driver;
         this.serverSession = serverSession;
+        this.waiter = waiter;
+        this.pacer = pacer;
+        this.syncTracker = syncTracker;
+        this.metrics = metrics;
     }
     
     @Override
@@ -64,45 +83,56 @@ public class RbcScraperDriver extends ScraperDriverBase {
             
             int accountId = serverSession.getAccountId(INSTITUTION, ref);
             
-            click(link);
-            
-            //XXX
-            link = driver.findElement(By.xpath("//a[@title='Display last 30 days']"));
-            click(link);
+            try (Metrics.Timing timing = metrics.timer("account_navigation_seconds", "institution", INSTITUTION).time();
+                    Span span = ScraperEvents.pageNavigation(INSTITUTION, "Account Details").account(ref)) {
+                click(link);
+                
+                //XXX
+                link = driver.findElement(By.xpath("//a[@title='Display last 30 days']"));
+                // the table shown before the refresh must not be scraped
+                List<WebElement> old = waiter.probe(By.xpath("//section[@id='pdaTransactionsTable']//table"));
+                click(link, old.isEmpty() ? link : old.get(0));
 
-            Sleeper.sleepBetween(5, 10, TimeUnit.SECONDS); // wait for page to load
-            e = driver.findElement(By.xpath("//section[@id='pdaTransactionsTable']"));
-            checkState("Bank Account Details - RBC Online Banking".equals(driver.getTitle()));
-            checkState(1 == e.findElements(By.xpath(".//table")).size());
-            
-            table = e.findElement(By.xpath("./table"));
-            List<WebElement> rows = table.findElements(By.xpath(".//tr"));
-            checkState(rows.size() > 0);
-            checkState(rows.get(0).getText().equals("DATE DESCRIPTION WITHDRAWALS DEPOSIT BALANCE"));
+                e = waiter.until(By.xpath("//section[@id='pdaTransactionsTable']"));
+                waiter.until("account details title",
+                        d -> "Bank Account Details - RBC Online Banking".equals(d.getTitle()));
+                checkState(1 == e.findElements(By.xpath(".//table")).size());
+            }
             
-            for (int j = 1; j < rows.size(); j++) {
-                List<WebElement> cells = rows.get(j).findElements(By.xpath("./child::*")); // td/th cells
-                checkState(cells.size() == 5);
-                
-                StatementDTO s = new StatementDTO();
-                s.setAccountId(accountId);
-                s.setDate(cells.get(0).getText(), "MMM d, yyyy");
-                
-                String description = cells.get(1).getText();
-                description = description.replaceAll("\\p{Space}+", " ");
-                s.setDescription(description);
-                
-                String amount1 = cells.get(2).getText(); // WITHDRAWALS, negative
-                String amount2 = cells.get(3).getText(); // DEPOSIT, positive
-                checkState(StringUtils.isBlank(amount1) != StringUtils.isBlank(amount2));
-                String amount = StringUtils.isBlank(amount1) ? amount2 : amount1;
-                checkState(amount.matches("^-?\\$[\\d,]+\\.\\d\\d$")); // -$1,000.00
-                checkState(amount == (amount.startsWith("-") ? amount1 : amount2));
-                amount = amount.replaceAll("[^-\\d.]", "");
-                s.setAmount(new BigDecimal(amount));
+            try (Metrics.Timing timing = metrics.timer("row_extraction_seconds", "institution", INSTITUTION).time();
+                    Span span = ScraperEvents.tableExtract(INSTITUTION).account(ref).accountId(accountId)) {
+                HtmlTable rows = HtmlTable.extract(driver,
+                        e.findElement(By.xpath("./table")), ".//tr", "./child::*"); // td/th cells
+                checkState(rows.size() > 0);
+                checkState(rows.getRowText(0).equals("DATE DESCRIPTION WITHDRAWALS DEPOSIT BALANCE"));
                 
-                serverSession.merge(s);
-                logger.debug("Done merged transaction " + j);
+                SyncTracker.AccountScan scan = syncTracker.begin(accountId);
+                int merged = 0;
+                for (int j = 1; j < rows.size(); j++) {
+                    String[] cells = rows.getText(j);
+                    checkState(cells.length == 5);
+                    
+                    StatementDTO s = new StatementDTO();
+                    s.setAccountId(accountId);
+                    s.setDate(cells[0], "MMM d, yyyy");
+                    
+                    s.setDescription(Descriptions.collapse(cells[1]));
+                    
+                    // WITHDRAWALS, shown negative, -$1,000.00; DEPOSIT, positive
+                    s.setAmount(Amounts.parseSignedDebitCredit(cells[2], cells[3]));
+                    
+                    if (!scan.include(s, Amounts.parseOrNull(cells[4]))) {
+                        logger.debug("Skipping " + (rows.size() - j) + " synced transactions");
+                        break;
+                    }
+                    
+                    serverSession.merge(s);
+                    merged++;
+                    logger.debug("Done merged transaction {}", j);
+                }
+                scan.complete();
+                span.rows(merged);
+                metrics.counter("rows_total", "institution", INSTITUTION).add(merged);
             }
             
             link = driver.findElement(By.xpath("//a[normalize-space(text())='Accounts Summary']"));
@@ -140,10 +170,11 @@ public class RbcScraperDriver extends ScraperDriverBase {
         
         input = driver.findElement(By.xpath("//button[text()='Sign In']"));
         checkState("submit".equals(input.getAttribute("type")));
-        input.click();
         logger.debug("Logging in...");
-        
-        checkStateAccountSummary();
+        try (Pacer.Permit permit = pacer.acquire(INSTITUTION)) {
+            input.click();
+            checkStateAccountSummary();
+        }
         
         logger.debug("Logged in...");
         this.loggedIn = true;
@@ -164,11 +195,21 @@ public class RbcScraperDriver extends ScraperDriverBase {
     }
     
     private void click(WebElement e) {
-        Sleeper.sleepBetween(10, 20, TimeUnit.SECONDS);
-        
-        driver.executeScript("arguments[0].scrollIntoView()", e);
-        
-        Actions actions = new Actions(driver);
-        actions.moveToElement(e).click().build().perform();
+        click(e, e);
+    }
+    
+    /**
+     * Clicks the element, and waits until the element {@code replaced} of
+     * the page being left is gone and the new page has loaded.
+     */
+    private void click(WebElement e, WebElement replaced) {
+        try (Pacer.Permit permit = pacer.acquire(INSTITUTION)) {
+            driver.executeScript("arguments[0].scrollIntoView()", e);
+            
+            Actions actions = new Actions(driver);
+            actions.moveToElement(e).click().build().perform();
+            waiter.stale(replaced);
+            waiter.pageReady();
+        }
     }
 }
\ No newline at end of file
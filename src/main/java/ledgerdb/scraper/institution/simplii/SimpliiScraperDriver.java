@@ -1,14 +1,20 @@
 package ledgerdb.scraper.institution.simplii;
 
 import static com.google.common.base.Preconditions.checkState;
-import java.math.BigDecimal;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
+import ledgerdb.scraper.HtmlTable;
 import ledgerdb.scraper.ScraperDriverBase;
 import ledgerdb.scraper.ServerSession;
 import ledgerdb.scraper.dto.StatementDTO;
-import ledgerdb.scraper.util.Sleeper;
+import ledgerdb.scraper.jfr.ScraperEvents;
+import ledgerdb.scraper.jfr.Span;
+import ledgerdb.scraper.metrics.Metrics;
+import ledgerdb.scraper.parse.Amounts;
+import ledgerdb.scraper.registry.Institution;
+import ledgerdb.scraper.sync.SyncTracker;
+import ledgerdb.scraper.util.Pacer;
+import ledgerdb.scraper.util.Waiter;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -19,6 +25,7 @@ import org.openqa.selenium.interactions.Actions;
 import org.openqa.selenium.remote.RemoteWebDriver;
 import org.openqa.selenium.support.ui.Select;
 
+@Institution("simplii")
 public class SimpliiScraperDriver extends ScraperDriverBase {
     
     private static final String INSTITUTION = "simplii";
@@ -27,13 +34,25 @@ public class SimpliiScraperDriver extends ScraperDriverBase {
     
     private final RemoteWebDriver driver;
     private final ServerSession serverSession;
+    private final Waiter waiter;
+    private final Pacer pacer;
+    private final SyncTracker syncTracker;
+    private final Metrics metrics;
     
     @Inject
     public SimpliiScraperDriver(
             RemoteWebDriver driver,
-            ServerSession serverSession) {
+            ServerSession serverSession,
+            Waiter waiter,
+            Pacer pacer,
+            SyncTracker syncTracker,
+            Metrics metrics) {
         this.driver = driver;
         this.serverSession = serverSession;
+        this.waiter = waiter;
+        this.pacer = pacer;
+        this.syncTracker = syncTracker;
+        this.metrics = metrics;
     }
     
     @Override
@@ -49,6 +68,7 @@ public class SimpliiScraperDriver extends ScraperDriverBase {
         
         e1 = driver.findElement(By.xpath("//a[text()='Account Summary']"));
         click(e1);
+        waiter.until(By.xpath("//header/h1[text()='Account Summary']"));
         
         logger.debug("Scraping table " + className);
         e1 = driver.findElement(By.xpath("//table[@class='" + className + "']"));
@@ -66,34 +86,43 @@ public class SimpliiScraperDriver extends ScraperDriverBase {
         for (int i = 0; i < accountList.size(); i++) {
             logger.debug("Processing account " + (i + 1) + " out of " + accountList.size());
             
-            if (i > 0) {
-                e1 = driver.findElement(By.xpath("//a[text()='Account Summary']"));
-                click(e1);
+            String reference;
+            try (Metrics.Timing timing = metrics.timer("account_navigation_seconds", "institution", INSTITUTION).time();
+                    Span span = ScraperEvents.pageNavigation(INSTITUTION, "Account Details")) {
+                if (i > 0) {
+                    e1 = driver.findElement(By.xpath("//a[text()='Account Summary']"));
+                    click(e1);
+                    waiter.until(By.xpath("//header/h1[text()='Account Summary']"));
 
-                e1 = driver.findElement(By.xpath("//table[@class='" + className + "']"));
-                accountList = e1.findElements(By.xpath("tbody/tr"));
-            }
-            if (i >= accountList.size()) break;
-        
-            e2 = accountList.get(i).findElement(By.xpath(".//a"));
-            click(e2);
-            // LOADING
-
-            // Account Details
-            
-            driver.findElement(By.xpath("//header/h1[text()='Account Details']"));
-            logger.debug("Account Details");
-            
-            e1 = driver.findElement(By.xpath("//div[@class='account-selector']//select"));
-            Select sel = new Select(e1);
-            String accountName = sel.getFirstSelectedOption().getText();
-            logger.debug("Account name: " + accountName);
-            
-            String reference = accountName.replaceFirst(".*\\(([0-9]+)\\).*", "$1");
-            checkState(reference.matches("^[0-9]+$"));
-            logger.debug("Reference: " + reference);
+                    e1 = driver.findElement(By.xpath("//table[@class='" + className + "']"));
+                    accountList = e1.findElements(By.xpath("tbody/tr"));
+                }
+                if (i >= accountList.size()) break;
             
-            List<WebElement> uiAlertList = driver.findElements(By.xpath("//ui-alert/div[@class='ui-text']"));
+                e2 = accountList.get(i).findElement(By.xpath(".//a"));
+                click(e2);
+                // LOADING
+
+                // Account Details
+                
+                waiter.until(By.xpath("//header/h1[text()='Account Details']"));
+                logger.debug("Account Details");
+                
+                e1 = driver.findElement(By.xpath("//div[@class='account-selector']//select"));
+                Select sel = new Select(e1);
+                String accountName = sel.getFirstSelectedOption().getText();
+                logger.debug("Account name: " + accountName);
+                
+                reference = accountName.replaceFirst(".*\\(([0-9]+)\\).*", "$1");
+                checkState(reference.matches("^[0-9]+$"));
+                logger.debug("Reference: " + reference);
+                
+                // either the transactions or an alert saying why there are none
+                waiter.until(By.xpath("//ui-alert/div[@class='ui-text']"
+                        + " | //section[contains(@class,'transaction-list')]//table"));
+                span.account(reference);
+            }
+            List<WebElement> uiAlertList = waiter.probe(By.xpath("//ui-alert/div[@class='ui-text']"));
             if (uiAlertList.size() > 0) {
                 String text = uiAlertList.get(0).getText();
                 Level level;
@@ -110,58 +139,53 @@ public class SimpliiScraperDriver extends ScraperDriverBase {
             int accountId = serverSession.getAccountId(INSTITUTION, reference);
 
             // Past Transactions
-            e1 = driver.findElement(By.xpath("//section[contains(@class,'transaction-list')]//table"));
-            List<WebElement> trList = e1.findElements(By.xpath(".//tr"));
-            checkState(trList.size() >= 2);
-            checkState("Transaction List".equals(trList.get(0).getText()));
-            checkState("Date Transactions Funds out Funds in Running Balance".equals(trList.get(1).getText()));
-            logger.debug("Got " + (trList.size() - 2) + " transactions");
+            try (Metrics.Timing timing = metrics.timer("row_extraction_seconds", "institution", INSTITUTION).time();
+                    Span span = ScraperEvents.tableExtract(INSTITUTION).account(reference).accountId(accountId)) {
+                e1 = driver.findElement(By.xpath("//section[contains(@class,'transaction-list')]//table"));
+                HtmlTable trList = HtmlTable.extract(driver, e1, ".//tr", 2, "./th|./td", "./td");
+                checkState(trList.size() >= 2);
+                checkState("Transaction List".equals(trList.getRowText(0)));
+                checkState("Date Transactions Funds out Funds in Running Balance".equals(trList.getRowText(1)));
+                logger.debug("Got " + (trList.size() - 2) + " transactions");
 
-            for (int j = 2; j < trList.size(); j++) {
-                WebElement tr = trList.get(j);
-                logger.debug("Parsing transaction " + (j - 1) + " out of " + (trList.size() - 2));
+                SyncTracker.AccountScan scan = syncTracker.begin(accountId);
+                int merged = 0;
+                for (int j = 2; j < trList.size(); j++) {
+                    logger.debug("Parsing transaction {} out of {}", j - 1, trList.size() - 2);
                 
-                List<WebElement> tdList = tr.findElements(By.xpath("./td"));
-                checkState(tdList.size() == 5);
-                checkState(tdList.get(0).getAttribute("class").equals("date"));
-                checkState(tdList.get(1).getAttribute("class").equals("transactions"));
-                checkState(tdList.get(2).getAttribute("class").equals("debit"));
-                checkState(tdList.get(3).getAttribute("class").equals("credit"));
-                checkState(tdList.get(4).getAttribute("class").equals("balance"));
-
-                StatementDTO s = new StatementDTO();
-                s.setAccountId(accountId);
+                    String[] tdList = trList.getText(j);
+                    String[] tdClasses = trList.getClasses(j);
+                    checkState(tdList.length == 5);
+                    checkState(tdClasses[0].equals("date"));
+                    checkState(tdClasses[1].equals("transactions"));
+                    checkState(tdClasses[2].equals("debit"));
+                    checkState(tdClasses[3].equals("credit"));
+                    checkState(tdClasses[4].equals("balance"));
 
-                s.setDate(tdList.get(0).getText(), "MMM d, yyyy");
+                    StatementDTO s = new StatementDTO();
+                    s.setAccountId(accountId);
 
-                s.setDescription(tdList.get(1).getText());
+                    s.setDate(tdList[0], "MMM d, yyyy");
 
-                String dr = tdList.get(2).getText();
-                String cr = tdList.get(3).getText();
-                checkState(dr.equals("") != cr.equals(""));
+                    s.setDescription(tdList[1]);
 
-                String amount;
-                int sign;
-                if (cr.equals("")) {
-                    // Funds out
-                    sign = -1;
-                    amount = dr;
-                } else {
-                    // Funds in
-                    sign = +1;
-                    amount = cr;
-                }
+                    // Funds out, Funds in
+                    s.setAmount(Amounts.parseDebitCredit(tdList[2], tdList[3]));
 
-                checkState(amount.matches("^\\$[\\d,]+(\\.\\d\\d)?$"));
-                amount = amount.replaceAll("[^\\d.]", "");
-                if (sign < 0)
-                    amount = "-" + amount;
-                s.setAmount(new BigDecimal(amount));
+                    if (!scan.include(s, Amounts.parseOrNull(tdList[4]))) {
+                        logger.debug("Skipping " + (trList.size() - j) + " synced transactions");
+                        break;
+                    }
 
-                serverSession.merge(s);
+                    serverSession.merge(s);
+                    merged++;
                 
-                logger.debug("Done merged transaction " + j);
-            } // for
+                    logger.debug("Done merged transaction {}", j);
+                } // for
+                scan.complete();
+                span.rows(merged);
+                metrics.counter("rows_total", "institution", INSTITUTION).add(merged);
+            }
         } // for
     }
     
@@ -178,9 +202,12 @@ public class SimpliiScraperDriver extends ScraperDriverBase {
         
         e = driver.findElement(By.xpath("//input[@id='password-']"));
         e.sendKeys(password);
-        Sleeper.sleepBetween(2, 5, TimeUnit.SECONDS);
-        e.sendKeys(Keys.ENTER);
+        waiter.pause();
         logger.debug("Logging in...");
+        try (Pacer.Permit permit = pacer.acquire(INSTITUTION)) {
+            e.sendKeys(Keys.ENTER);
+            waiter.until(By.xpath("//header/h1[text()='Account Summary']"));
+        }
         
         // Account Summary
         // Welcome, MR XXX XX. Customer number: 0001234567.
@@ -205,12 +232,17 @@ public class SimpliiScraperDriver extends ScraperDriverBase {
         this.loggedIn = false;
     }
     
+    /**
+     * Clicks the element. The site changes views without loading a new
+     * document, and clicking the view shown changes nothing: callers wait
+     * for an element only the view they go to shows.
+     */
     private void click(WebElement e) {
-        Sleeper.sleepBetween(10, 20, TimeUnit.SECONDS);
-        
-        driver.executeScript("arguments[0].scrollIntoView()", e);
-        
-        Actions actions = new Actions(driver);
-        actions.moveToElement(e).click().build().perform();
+        try (Pacer.Permit permit = pacer.acquire(INSTITUTION)) {
+            driver.executeScript("arguments[0].scrollIntoView()", e);
+            
+            Actions actions = new Actions(driver);
+            actions.moveToElement(e).click().build().perform();
+        }
     }
 }
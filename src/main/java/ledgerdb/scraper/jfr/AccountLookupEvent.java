@@ -0,0 +1,11 @@
+package ledgerdb.scraper.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("ledgerdb.scraper.AccountLookup")
+@Label("Account Lookup")
+@Description("Resolving an account reference to its account id")
+class AccountLookupEvent extends ScraperEvent {
+}
@@ -0,0 +1,17 @@
+package ledgerdb.scraper.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("ledgerdb.scraper.CredentialLookup")
+@Label("Credential Lookup")
+@Description("Reading an entry of the KeePass database")
+class CredentialLookupEvent extends ScraperEvent {
+
+    @Label("Entry")
+    String entry;
+
+    @Label("Field")
+    String field;
+}
@@ -0,0 +1,123 @@
+package ledgerdb.scraper.jfr;
+
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The part of {@link ScraperEvents} which uses the flight recorder API,
+ * only loaded once recording starts.
+ */
+final class EventRecorder {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final int ACCOUNT_HASH_LENGTH = 12;
+
+    private static Recording recording;
+
+    private EventRecorder() {}
+
+    static void start(Path file) throws IOException {
+        Configuration configuration;
+        try {
+            configuration = Configuration.getConfiguration("default");
+        } catch (ParseException e) {
+            throw new IOException("Unable to read flight recorder settings", e);
+        }
+        recording = new Recording(configuration);
+        recording.setName("ledgerdb-scraper");
+        recording.setDestination(file);
+        recording.start();
+        logger.info("Recording flight recorder events to " + file);
+    }
+
+    static void stop() throws IOException {
+        try {
+            // written to the destination
+            recording.stop();
+            logger.info("Flight recording written to " + recording.getDestination());
+        } finally {
+            recording.close();
+            recording = null;
+        }
+    }
+
+    static Span login(String institution) {
+        LoginEvent event = new LoginEvent();
+        event.institution = institution;
+        return new EventSpan(event);
+    }
+
+    static Span pageNavigation(String institution, String page) {
+        PageNavigationEvent event = new PageNavigationEvent();
+        event.institution = institution;
+        event.page = page;
+        return new EventSpan(event);
+    }
+
+    static Span tableExtract(String institution) {
+        TableExtractEvent event = new TableExtractEvent();
+        event.institution = institution;
+        return new EventSpan(event);
+    }
+
+    static Span statementMerge(int accountId) {
+        StatementMergeEvent event = new StatementMergeEvent();
+        event.accountId = accountId;
+        return new EventSpan(event);
+    }
+
+    static Span accountLookup(String institution, String reference) {
+        AccountLookupEvent event = new AccountLookupEvent();
+        event.institution = institution;
+        return new EventSpan(event).account(reference);
+    }
+
+    static Span credentialLookup(String entry, String field) {
+        CredentialLookupEvent event = new CredentialLookupEvent();
+        event.entry = entry;
+        event.field = field;
+        return new EventSpan(event);
+    }
+
+    private static class EventSpan extends Span {
+
+        private final ScraperEvent event;
+
+        EventSpan(ScraperEvent event) {
+            this.event = event;
+            event.begin();
+        }
+
+        @Override
+        public Span account(String reference) {
+            event.accountHash = Hashing.sha256().hashString(reference, StandardCharsets.UTF_8)
+                    .toString().substring(0, ACCOUNT_HASH_LENGTH);
+            return this;
+        }
+
+        @Override
+        public Span accountId(int accountId) {
+            event.accountId = accountId;
+            return this;
+        }
+
+        @Override
+        public Span rows(int rows) {
+            event.rows = rows;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            event.commit();
+        }
+    }
+}
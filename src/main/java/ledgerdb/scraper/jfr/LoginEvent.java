@@ -0,0 +1,11 @@
+package ledgerdb.scraper.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("ledgerdb.scraper.Login")
+@Label("Login")
+@Description("Loading the sign in page and logging in")
+class LoginEvent extends ScraperEvent {
+}
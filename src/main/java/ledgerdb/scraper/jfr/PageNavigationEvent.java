@@ -0,0 +1,14 @@
+package ledgerdb.scraper.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("ledgerdb.scraper.PageNavigation")
+@Label("Page Navigation")
+@Description("Navigating to the transactions of an account")
+class PageNavigationEvent extends ScraperEvent {
+
+    @Label("Page")
+    String page;
+}
@@ -0,0 +1,27 @@
+package ledgerdb.scraper.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Fields shared by the scraper's flight recorder events. Account numbers
+ * are not recorded, only a hash to tell accounts apart.
+ */
+@Category("LedgerDB Scraper")
+abstract class ScraperEvent extends Event {
+
+    @Label("Institution")
+    String institution;
+
+    @Label("Account Hash")
+    @Description("Start of the SHA-256 of the account reference")
+    String accountHash;
+
+    @Label("Account Id")
+    int accountId;
+
+    @Label("Rows")
+    int rows;
+}
@@ -0,0 +1,92 @@
+package ledgerdb.scraper.jfr;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Emits flight recorder events for the phases of a scraping run, so that
+ * a recording shows them next to garbage collection, thread and I/O
+ * events.
+ * <p>
+ * Events are only created after {@link #start} has started a recording;
+ * until then every method returns a span which does nothing, and the
+ * flight recorder classes are never loaded. This keeps the scraper
+ * running on Java 8 updates older than 8u262, which have no
+ * {@code jdk.jfr} API.
+ * <pre>
+ * try (Span span = ScraperEvents.tableExtract(INSTITUTION).account(reference)) {
+ *     ...
+ *     span.rows(rows.size());
+ * }
+ * </pre>
+ */
+public final class ScraperEvents {
+
+    private static volatile boolean enabled = false;
+
+    private ScraperEvents() {}
+
+    /**
+     * Starts a recording with the JVM's default settings and the
+     * scraper's events, written to the file when stopped.
+     *
+     * @throws UnsupportedOperationException if the JVM has no flight
+     *      recorder API
+     */
+    public static synchronized void start(Path file) throws IOException {
+        if (enabled)
+            throw new IllegalStateException("Already recording");
+        try {
+            EventRecorder.start(file);
+        } catch (NoClassDefFoundError e) {
+            throw new UnsupportedOperationException(
+                    "Flight recorder API not available, Java 8u262 or later is required", e);
+        }
+        enabled = true;
+    }
+
+    /**
+     * Stops the recording and writes it out, if recording.
+     */
+    public static synchronized void stop() throws IOException {
+        if (!enabled)
+            return;
+        enabled = false;
+        EventRecorder.stop();
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static Span login(String institution) {
+        return enabled ? EventRecorder.login(institution) : Span.NONE;
+    }
+
+    /**
+     * @param page what the driver navigates to, e.g. "Statements"
+     */
+    public static Span pageNavigation(String institution, String page) {
+        return enabled ? EventRecorder.pageNavigation(institution, page) : Span.NONE;
+    }
+
+    public static Span tableExtract(String institution) {
+        return enabled ? EventRecorder.tableExtract(institution) : Span.NONE;
+    }
+
+    /**
+     * @param accountId account of the first statement of the batch; only
+     *      batches of replayed spools may mix accounts
+     */
+    public static Span statementMerge(int accountId) {
+        return enabled ? EventRecorder.statementMerge(accountId) : Span.NONE;
+    }
+
+    public static Span accountLookup(String institution, String reference) {
+        return enabled ? EventRecorder.accountLookup(institution, reference) : Span.NONE;
+    }
+
+    public static Span credentialLookup(String entry, String field) {
+        return enabled ? EventRecorder.credentialLookup(entry, field) : Span.NONE;
+    }
+}
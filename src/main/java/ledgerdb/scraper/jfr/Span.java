@@ -0,0 +1,28 @@
+package ledgerdb.scraper.jfr;
+
+/**
+ * A phase being recorded, ended by {@link #close()}. Does nothing unless
+ * recording, see {@link ScraperEvents}.
+ */
+public class Span implements AutoCloseable {
+
+    static final Span NONE = new Span();
+
+    Span() {}
+
+    /** Records a hash of the account reference, not the reference itself. */
+    public Span account(String reference) {
+        return this;
+    }
+
+    public Span accountId(int accountId) {
+        return this;
+    }
+
+    public Span rows(int rows) {
+        return this;
+    }
+
+    @Override
+    public void close() {}
+}
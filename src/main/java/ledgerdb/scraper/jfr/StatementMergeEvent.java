@@ -0,0 +1,11 @@
+package ledgerdb.scraper.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("ledgerdb.scraper.StatementMerge")
+@Label("Statement Merge")
+@Description("Posting a batch of statements to the server, rows being the batch size")
+class StatementMergeEvent extends ScraperEvent {
+}
@@ -0,0 +1,11 @@
+package ledgerdb.scraper.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("ledgerdb.scraper.TableExtract")
+@Label("Table Extract")
+@Description("Reading and parsing the rows of a transaction table")
+class TableExtractEvent extends ScraperEvent {
+}
@@ -0,0 +1,546 @@
+package ledgerdb.scraper.kdbx;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.bouncycastle.crypto.StreamCipher;
+import org.bouncycastle.crypto.engines.ChaCha7539Engine;
+import org.bouncycastle.crypto.engines.Salsa20Engine;
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Reader for KeePass KDBX 3.1 and 4.x databases protected by a master
+ * password. The whole database is decrypted once on {@link #open}; entries
+ * are then served from memory until {@link #close()} wipes them.
+ * <p>
+ * Supported are the AES and ChaCha20 ciphers, the AES-KDF and Argon2d/id
+ * key derivation functions and the Salsa20 and ChaCha20 inner streams.
+ * Key files and Windows user accounts are not.
+ */
+public class KdbxDatabase implements AutoCloseable {
+
+    private static final int SIGNATURE_1 = 0x9AA2D903;
+    private static final int SIGNATURE_2 = 0xB54BFB67;
+
+    private static final UUID CIPHER_AES = UUID.fromString("31c1f2e6-bf71-4350-be58-05216afc5aff");
+    private static final UUID CIPHER_CHACHA20 = UUID.fromString("d6038a2b-8b6f-4cb5-a524-339a31dbb59a");
+
+    private static final UUID KDF_AES = UUID.fromString("c9d9f39a-628a-4460-bf74-0d08c18a4fea");
+    private static final UUID KDF_ARGON2D = UUID.fromString("ef636ddf-8c29-444b-91f7-a9a403e30a0c");
+    private static final UUID KDF_ARGON2ID = UUID.fromString("9e298b19-56db-4773-b23d-fc3ec6f0a1e6");
+
+    private static final int STREAM_SALSA20 = 2;
+    private static final int STREAM_CHACHA20 = 3;
+    private static final byte[] SALSA20_IV = {
+        (byte)0xE8, 0x30, 0x09, 0x4B, (byte)0x97, 0x20, 0x5D, 0x2A };
+
+    // outer header field ids
+    private static final int END_OF_HEADER = 0;
+    private static final int CIPHER_ID = 2;
+    private static final int COMPRESSION_FLAGS = 3;
+    private static final int MASTER_SEED = 4;
+    private static final int TRANSFORM_SEED = 5;
+    private static final int TRANSFORM_ROUNDS = 6;
+    private static final int ENCRYPTION_IV = 7;
+    private static final int PROTECTED_STREAM_KEY = 8;
+    private static final int STREAM_START_BYTES = 9;
+    private static final int INNER_RANDOM_STREAM_ID = 10;
+    private static final int KDF_PARAMETERS = 11;
+
+    // inner header field ids, KDBX 4
+    private static final int INNER_END_OF_HEADER = 0;
+    private static final int INNER_STREAM_ID = 1;
+    private static final int INNER_STREAM_KEY = 2;
+
+    private final List<KdbxEntry> entries;
+
+    private KdbxDatabase(List<KdbxEntry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Decrypts the database.
+     *
+     * @param password master password as UTF-8 bytes; not modified
+     * @throws IOException if the file is not a supported KDBX database, or
+     *      the password is wrong
+     */
+    public static KdbxDatabase open(Path file, byte[] password) throws IOException {
+        byte[] compositeKey = null;
+        try {
+            compositeKey = sha256(sha256(password));
+            return new Reader(Files.readAllBytes(file)).read(compositeKey);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated KDBX file " + file, e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to decrypt " + file + ": " + e.getMessage(), e);
+        } finally {
+            if (compositeKey != null)
+                Arrays.fill(compositeKey, (byte)0);
+        }
+    }
+
+    /** Entries outside the recycle bin, without history. */
+    public List<KdbxEntry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /** Wipes all entries from memory. */
+    @Override
+    public void close() {
+        entries.forEach(KdbxEntry::clear);
+        entries.clear();
+    }
+
+    private static class Reader {
+
+        private final ByteBuffer buffer;
+
+        private int majorVersion;
+        private final Map<Integer, byte[]> header = new HashMap<>();
+
+        private int innerStreamId;
+        private byte[] innerStreamKey;
+
+        Reader(byte[] data) {
+            buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        KdbxDatabase read(byte[] compositeKey) throws IOException, GeneralSecurityException {
+            if (buffer.remaining() < 12
+                    || buffer.getInt() != SIGNATURE_1
+                    || buffer.getInt() != SIGNATURE_2)
+                throw new IOException("Not a KDBX file");
+            int version = buffer.getInt();
+            majorVersion = version >>> 16;
+            if (majorVersion != 3 && majorVersion != 4)
+                throw new IOException("Unsupported KDBX version " + majorVersion + "." + (version & 0xFFFF));
+
+            int headerStart = 0;
+            readHeader();
+            byte[] headerBytes = Arrays.copyOfRange(buffer.array(), headerStart, buffer.position());
+
+            byte[] transformedKey = transformKey(compositeKey);
+            byte[] masterSeed = required(MASTER_SEED);
+            byte[] masterKey = sha256(masterSeed, transformedKey);
+
+            byte[] payload;
+            if (majorVersion >= 4) {
+                byte[] hmacKey = sha512(masterSeed, transformedKey, new byte[] { 1 });
+                checkHeader(headerBytes, hmacKey);
+                payload = decrypt(masterKey, readHmacBlocks(hmacKey));
+                Arrays.fill(hmacKey, (byte)0);
+            } else {
+                byte[] plain = decrypt(masterKey, remaining());
+                byte[] startBytes = required(STREAM_START_BYTES);
+                if (plain.length < startBytes.length || !MessageDigest.isEqual(
+                        startBytes, Arrays.copyOf(plain, startBytes.length)))
+                    throw new IOException("Invalid password or corrupt file");
+                payload = readHashedBlocks(ByteBuffer
+                        .wrap(plain, startBytes.length, plain.length - startBytes.length)
+                        .order(ByteOrder.LITTLE_ENDIAN));
+                Arrays.fill(plain, (byte)0);
+            }
+            Arrays.fill(transformedKey, (byte)0);
+            Arrays.fill(masterKey, (byte)0);
+
+            byte[] compression = header.get(COMPRESSION_FLAGS);
+            if (compression != null && ByteBuffer.wrap(compression).order(ByteOrder.LITTLE_ENDIAN).getInt() == 1)
+                payload = gunzip(payload);
+
+            ByteBuffer xml = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+            if (majorVersion >= 4) {
+                readInnerHeader(xml);
+            } else {
+                innerStreamId = ByteBuffer.wrap(required(INNER_RANDOM_STREAM_ID))
+                        .order(ByteOrder.LITTLE_ENDIAN).getInt();
+                innerStreamKey = required(PROTECTED_STREAM_KEY);
+            }
+            try {
+                return new KdbxDatabase(parseXml(new ByteArrayInputStream(
+                        payload, xml.position(), xml.remaining())));
+            } finally {
+                Arrays.fill(payload, (byte)0);
+                Arrays.fill(innerStreamKey, (byte)0);
+            }
+        }
+
+        private void readHeader() throws IOException {
+            for (;;) {
+                int id = buffer.get() & 0xFF;
+                int size = majorVersion >= 4 ? buffer.getInt() : buffer.getShort() & 0xFFFF;
+                byte[] value = new byte[size];
+                buffer.get(value);
+                if (id == END_OF_HEADER)
+                    break;
+                header.put(id, value);
+            }
+        }
+
+        private void readInnerHeader(ByteBuffer data) {
+            for (;;) {
+                int id = data.get() & 0xFF;
+                byte[] value = new byte[data.getInt()];
+                data.get(value);
+                if (id == INNER_END_OF_HEADER)
+                    break;
+                if (id == INNER_STREAM_ID)
+                    innerStreamId = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN).getInt();
+                else if (id == INNER_STREAM_KEY)
+                    innerStreamKey = value;
+                // attachments (id 3) are not needed
+            }
+        }
+
+        private byte[] required(int id) throws IOException {
+            byte[] value = header.get(id);
+            if (value == null)
+                throw new IOException("Missing KDBX header field " + id);
+            return value;
+        }
+
+        private byte[] remaining() {
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            return data;
+        }
+
+        private byte[] transformKey(byte[] compositeKey) throws IOException, GeneralSecurityException {
+            if (majorVersion < 4) {
+                long rounds = ByteBuffer.wrap(required(TRANSFORM_ROUNDS))
+                        .order(ByteOrder.LITTLE_ENDIAN).getLong();
+                return aesKdf(compositeKey, required(TRANSFORM_SEED), rounds);
+            }
+
+            Map<String, Object> kdf = readVariantDictionary(required(KDF_PARAMETERS));
+            UUID uuid = toUuid((byte[])kdf.get("$UUID"));
+            if (KDF_AES.equals(uuid))
+                return aesKdf(compositeKey, (byte[])kdf.get("S"), (Long)kdf.get("R"));
+            if (KDF_ARGON2D.equals(uuid) || KDF_ARGON2ID.equals(uuid)) {
+                Argon2Parameters.Builder builder = new Argon2Parameters.Builder(
+                        KDF_ARGON2D.equals(uuid)
+                                ? Argon2Parameters.ARGON2_d
+                                : Argon2Parameters.ARGON2_id)
+                        .withSalt((byte[])kdf.get("S"))
+                        .withParallelism(((Number)kdf.get("P")).intValue())
+                        .withMemoryAsKB((int)(((Number)kdf.get("M")).longValue() / 1024))
+                        .withIterations((int)((Number)kdf.get("I")).longValue())
+                        .withVersion(((Number)kdf.get("V")).intValue());
+                if (kdf.containsKey("K"))
+                    builder.withSecret((byte[])kdf.get("K"));
+                if (kdf.containsKey("A"))
+                    builder.withAdditional((byte[])kdf.get("A"));
+                Argon2BytesGenerator generator = new Argon2BytesGenerator();
+                generator.init(builder.build());
+                byte[] key = new byte[32];
+                generator.generateBytes(compositeKey, key);
+                return key;
+            }
+            throw new IOException("Unsupported KDF " + uuid);
+        }
+
+        private static byte[] aesKdf(byte[] compositeKey, byte[] seed, long rounds)
+                throws GeneralSecurityException {
+            Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(seed, "AES"));
+            byte[] key = compositeKey.clone();
+            for (long i = 0; i < rounds; i++)
+                cipher.update(key, 0, key.length, key, 0);
+            byte[] transformed = sha256(key);
+            Arrays.fill(key, (byte)0);
+            return transformed;
+        }
+
+        private byte[] decrypt(byte[] masterKey, byte[] data) throws IOException, GeneralSecurityException {
+            UUID cipherId = toUuid(required(CIPHER_ID));
+            byte[] iv = required(ENCRYPTION_IV);
+            if (CIPHER_AES.equals(cipherId)) {
+                Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+                cipher.init(Cipher.DECRYPT_MODE,
+                        new SecretKeySpec(masterKey, "AES"),
+                        new IvParameterSpec(iv));
+                try {
+                    return cipher.doFinal(data);
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("Invalid password or corrupt file", e);
+                }
+            }
+            if (CIPHER_CHACHA20.equals(cipherId)) {
+                StreamCipher cipher = new ChaCha7539Engine();
+                cipher.init(false, new ParametersWithIV(new KeyParameter(masterKey), iv));
+                byte[] plain = new byte[data.length];
+                cipher.processBytes(data, 0, data.length, plain, 0);
+                return plain;
+            }
+            throw new IOException("Unsupported cipher " + cipherId);
+        }
+
+        private void checkHeader(byte[] headerBytes, byte[] hmacKey) throws IOException, GeneralSecurityException {
+            byte[] hash = new byte[32];
+            byte[] hmac = new byte[32];
+            buffer.get(hash);
+            buffer.get(hmac);
+            if (!MessageDigest.isEqual(hash, sha256(headerBytes)))
+                throw new IOException("Corrupt KDBX header");
+            if (!MessageDigest.isEqual(hmac, hmac(blockKey(-1L, hmacKey), headerBytes)))
+                throw new IOException("Invalid password or corrupt file");
+        }
+
+        /** KDBX 4 payload: blocks authenticated by HMAC-SHA-256. */
+        private byte[] readHmacBlocks(byte[] hmacKey) throws IOException, GeneralSecurityException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (long index = 0;; index++) {
+                byte[] hmac = new byte[32];
+                buffer.get(hmac);
+                int size = buffer.getInt();
+                byte[] data = new byte[size];
+                buffer.get(data);
+
+                ByteBuffer prefix = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+                prefix.putLong(index).putInt(size);
+                if (!MessageDigest.isEqual(hmac, hmac(blockKey(index, hmacKey), prefix.array(), data)))
+                    throw new IOException("Corrupt KDBX block " + index);
+                if (size == 0)
+                    return out.toByteArray();
+                out.write(data);
+            }
+        }
+
+        /** KDBX 3 payload: blocks checked by SHA-256. */
+        private static byte[] readHashedBlocks(ByteBuffer data) throws IOException, GeneralSecurityException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (;;) {
+                data.getInt(); // block index
+                byte[] hash = new byte[32];
+                data.get(hash);
+                byte[] block = new byte[data.getInt()];
+                data.get(block);
+                if (block.length == 0)
+                    return out.toByteArray();
+                if (!MessageDigest.isEqual(hash, sha256(block)))
+                    throw new IOException("Corrupt KDBX block");
+                out.write(block);
+            }
+        }
+
+        private static byte[] blockKey(long index, byte[] hmacKey) throws GeneralSecurityException {
+            ByteBuffer b = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            b.putLong(index);
+            return sha512(b.array(), hmacKey);
+        }
+
+        private static Map<String, Object> readVariantDictionary(byte[] bytes) throws IOException {
+            ByteBuffer b = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            int version = b.getShort() & 0xFFFF;
+            if ((version & 0xFF00) != 0x0100)
+                throw new IOException("Unsupported KDF parameters version " + version);
+            Map<String, Object> map = new HashMap<>();
+            for (;;) {
+                int type = b.get() & 0xFF;
+                if (type == 0)
+                    return map;
+                byte[] name = new byte[b.getInt()];
+                b.get(name);
+                byte[] value = new byte[b.getInt()];
+                b.get(value);
+                ByteBuffer v = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN);
+                Object o;
+                switch (type) {
+                    case 0x04: o = v.getInt() & 0xFFFFFFFFL; break; // UInt32
+                    case 0x05: o = v.getLong(); break;              // UInt64
+                    case 0x08: o = value[0] != 0; break;            // Bool
+                    case 0x0C: o = (long)v.getInt(); break;         // Int32
+                    case 0x0D: o = v.getLong(); break;              // Int64
+                    case 0x18: o = new String(value, StandardCharsets.UTF_8); break;
+                    case 0x42: o = value; break;                    // byte[]
+                    default: throw new IOException("Unsupported KDF parameter type " + type);
+                }
+                map.put(new String(name, StandardCharsets.UTF_8), o);
+            }
+        }
+
+        private StreamCipher innerStream() throws IOException, GeneralSecurityException {
+            if (innerStreamId == STREAM_SALSA20) {
+                StreamCipher cipher = new Salsa20Engine();
+                cipher.init(false, new ParametersWithIV(
+                        new KeyParameter(sha256(innerStreamKey)), SALSA20_IV));
+                return cipher;
+            }
+            if (innerStreamId == STREAM_CHACHA20) {
+                byte[] hash = sha512(innerStreamKey);
+                StreamCipher cipher = new ChaCha7539Engine();
+                cipher.init(false, new ParametersWithIV(
+                        new KeyParameter(Arrays.copyOfRange(hash, 0, 32)),
+                        Arrays.copyOfRange(hash, 32, 44)));
+                Arrays.fill(hash, (byte)0);
+                return cipher;
+            }
+            throw new IOException("Unsupported inner stream " + innerStreamId);
+        }
+
+        private List<KdbxEntry> parseXml(InputStream in) throws IOException, GeneralSecurityException {
+            Document doc;
+            try {
+                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+                factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+                DocumentBuilder builder = factory.newDocumentBuilder();
+                doc = builder.parse(in);
+            } catch (ParserConfigurationException | SAXException e) {
+                throw new IOException("Invalid KDBX XML: " + e.getMessage(), e);
+            }
+
+            // Protected values are XOR-ed with one key stream, in document order.
+            StreamCipher stream = innerStream();
+            Map<Node, byte[]> protectedValues = new HashMap<>();
+            unprotect(doc.getDocumentElement(), stream, protectedValues);
+
+            Element root = child(doc.getDocumentElement(), "Root");
+            if (root == null)
+                throw new IOException("Invalid KDBX XML: missing Root");
+            Element meta = child(doc.getDocumentElement(), "Meta");
+            String recycleBin = null;
+            if (meta != null
+                    && "True".equalsIgnoreCase(text(child(meta, "RecycleBinEnabled"))))
+                recycleBin = text(child(meta, "RecycleBinUUID"));
+
+            List<KdbxEntry> list = new ArrayList<>();
+            for (Element group : children(root, "Group"))
+                readGroup(group, recycleBin, protectedValues, list);
+            return list;
+        }
+
+        private static void unprotect(Element element, StreamCipher stream, Map<Node, byte[]> values) {
+            if ("True".equalsIgnoreCase(element.getAttribute("Protected"))) {
+                byte[] data = Base64.getDecoder().decode(element.getTextContent().trim());
+                stream.processBytes(data, 0, data.length, data, 0);
+                values.put(element, data);
+            }
+            for (Node n = element.getFirstChild(); n != null; n = n.getNextSibling()) {
+                if (n instanceof Element)
+                    unprotect((Element)n, stream, values);
+            }
+        }
+
+        private static void readGroup(Element group, String recycleBin,
+                Map<Node, byte[]> protectedValues, List<KdbxEntry> list) {
+            if (recycleBin != null && recycleBin.equals(text(child(group, "UUID"))))
+                return;
+            String name = text(child(group, "Name"));
+            for (Element entry : children(group, "Entry")) {
+                Map<String, byte[]> fields = new LinkedHashMap<>();
+                Set<String> protectedFields = new HashSet<>();
+                for (Element string : children(entry, "String")) {
+                    String key = text(child(string, "Key"));
+                    Element value = child(string, "Value");
+                    if (key == null || value == null)
+                        continue;
+                    byte[] bytes = protectedValues.get(value);
+                    if (bytes != null) {
+                        protectedFields.add(key);
+                    } else {
+                        bytes = value.getTextContent().getBytes(StandardCharsets.UTF_8);
+                    }
+                    fields.put(key, bytes);
+                }
+                list.add(new KdbxEntry(name, fields, protectedFields));
+            }
+            for (Element child : children(group, "Group"))
+                readGroup(child, recycleBin, protectedValues, list);
+        }
+    }
+
+    private static Element child(Element parent, String name) {
+        for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n instanceof Element && name.equals(n.getNodeName()))
+                return (Element)n;
+        }
+        return null;
+    }
+
+    private static List<Element> children(Element parent, String name) {
+        List<Element> list = new ArrayList<>();
+        for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n instanceof Element && name.equals(n.getNodeName()))
+                list.add((Element)n);
+        }
+        return list;
+    }
+
+    private static String text(Element element) {
+        return element == null ? null : element.getTextContent();
+    }
+
+    private static UUID toUuid(byte[] bytes) {
+        ByteBuffer b = ByteBuffer.wrap(bytes);
+        return new UUID(b.getLong(), b.getLong());
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buf = new byte[8192];
+            for (int n; (n = in.read(buf)) > 0;)
+                out.write(buf, 0, n);
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] sha256(byte[]... data) throws GeneralSecurityException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        for (byte[] d : data)
+            md.update(d);
+        return md.digest();
+    }
+
+    private static byte[] sha512(byte[]... data) throws GeneralSecurityException {
+        MessageDigest md = MessageDigest.getInstance("SHA-512");
+        for (byte[] d : data)
+            md.update(d);
+        return md.digest();
+    }
+
+    private static byte[] hmac(byte[] key, byte[]... data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        for (byte[] d : data)
+            mac.update(d);
+        return mac.doFinal();
+    }
+}
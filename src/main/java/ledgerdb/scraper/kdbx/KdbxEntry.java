@@ -0,0 +1,52 @@
+package ledgerdb.scraper.kdbx;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Entry of a KDBX database. Protected fields (normally the password) are
+ * kept as bytes so that they can be wiped by {@link #clear()}.
+ */
+public class KdbxEntry {
+
+    private final String group;
+    private final Map<String, byte[]> fields = new LinkedHashMap<>();
+    private final Set<String> protectedFields;
+
+    KdbxEntry(String group, Map<String, byte[]> fields, Set<String> protectedFields) {
+        this.group = group;
+        this.fields.putAll(fields);
+        this.protectedFields = Collections.unmodifiableSet(protectedFields);
+    }
+
+    /** Name of the group containing the entry. */
+    public String getGroup() { return group; }
+
+    public String getTitle() { return getField("Title"); }
+
+    /** Field names in the order they appear in the database. */
+    public Set<String> getFieldNames() {
+        return Collections.unmodifiableSet(fields.keySet());
+    }
+
+    public boolean isProtected(String field) {
+        return protectedFields.contains(field);
+    }
+
+    /**
+     * @return the field value, or null if the entry has no such field
+     */
+    public String getField(String field) {
+        byte[] value = fields.get(field);
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    void clear() {
+        fields.values().forEach(value -> Arrays.fill(value, (byte)0));
+        fields.clear();
+    }
+}
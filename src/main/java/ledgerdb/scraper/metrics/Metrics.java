@@ -0,0 +1,231 @@
+package ledgerdb.scraper.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Timers, counters and gauges of one scraper process, shared by all its
+ * jobs and written out by {@link MetricsExporter}.
+ * <p>
+ * A metric is identified by its name and labels, given as name/value
+ * pairs; asking twice for the same metric returns the same instance:
+ * <pre>
+ * try (Metrics.Timing timing = metrics.timer("login_seconds", "institution", INSTITUTION).time()) {
+ *     ...
+ * }
+ * </pre>
+ * Names follow Prometheus conventions, and are prefixed with
+ * {@link #PREFIX} on export.
+ */
+public class Metrics {
+
+    public static final String PREFIX = "ledgerdb_scraper_";
+
+    private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    public Timer timer(String name, String... labels) {
+        return get(Timer.class, name, labels, Timer::new);
+    }
+
+    public Counter counter(String name, String... labels) {
+        return get(Counter.class, name, labels, Counter::new);
+    }
+
+    public Gauge gauge(String name, String... labels) {
+        return get(Gauge.class, name, labels, Gauge::new);
+    }
+
+    private <T extends Metric> T get(Class<T> type, String name, String[] labels,
+            Function<Id, T> constructor) {
+        Id id = new Id(name, labels);
+        Metric metric = metrics.computeIfAbsent(id.toString(), k -> constructor.apply(id));
+        if (!type.isInstance(metric))
+            throw new IllegalArgumentException(id + " is a " + metric.getType() + ", not a "
+                    + type.getSimpleName().toLowerCase());
+        return type.cast(metric);
+    }
+
+    /**
+     * @return all metrics, sorted by name and labels
+     */
+    public List<Metric> getMetrics() {
+        List<Metric> list = new ArrayList<>(metrics.values());
+        list.sort(Comparator.comparing((Metric metric) -> metric.getId().getName())
+                .thenComparing(metric -> metric.getId().toString()));
+        return list;
+    }
+
+    /** Name and labels of a metric. */
+    public static final class Id {
+
+        private final String name;
+        private final SortedMap<String, String> labels = new TreeMap<>();
+        private final String string;
+
+        Id(String name, String... labels) {
+            if (labels.length % 2 != 0)
+                throw new IllegalArgumentException("Labels must be name/value pairs: " + name);
+            this.name = name;
+            for (int i = 0; i < labels.length; i += 2)
+                this.labels.put(labels[i], labels[i + 1] == null ? "" : labels[i + 1]);
+            this.string = format(Collections.emptyMap());
+        }
+
+        public String getName() { return name; }
+        public SortedMap<String, String> getLabels() { return Collections.unmodifiableSortedMap(labels); }
+
+        /**
+         * @return the series in Prometheus notation, with extra labels
+         *      appended, e.g. {@code login_seconds{institution="rbc"}}
+         */
+        String format(Map<String, String> extraLabels) {
+            StringBuilder sb = new StringBuilder(name);
+            if (labels.isEmpty() && extraLabels.isEmpty())
+                return sb.toString();
+            Map<String, String> all = new LinkedHashMap<>(labels);
+            all.putAll(extraLabels);
+            sb.append('{');
+            String separator = "";
+            for (Map.Entry<String, String> label : all.entrySet()) {
+                sb.append(separator).append(label.getKey()).append("=\"")
+                        .append(label.getValue()
+                                .replace("\\", "\\\\")
+                                .replace("\"", "\\\"")
+                                .replace("\n", "\\n"))
+                        .append('"');
+                separator = ",";
+            }
+            return sb.append('}').toString();
+        }
+
+        @Override
+        public String toString() { return string; }
+    }
+
+    public abstract static class Metric {
+
+        private final Id id;
+
+        Metric(Id id) {
+            this.id = id;
+        }
+
+        public Id getId() { return id; }
+
+        /** Prometheus metric type */
+        public abstract String getType();
+    }
+
+    /**
+     * Durations of a phase, with a histogram of fixed buckets in seconds.
+     */
+    public static final class Timer extends Metric {
+
+        /** Upper bounds of the histogram buckets, in seconds */
+        public static final double[] BUCKETS = {
+            0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120 };
+
+        private long count = 0;
+        private long sumNanos = 0;
+        private long maxNanos = 0;
+        private final long[] bucketCounts = new long[BUCKETS.length];
+
+        Timer(Id id) {
+            super(id);
+        }
+
+        @Override
+        public String getType() { return "histogram"; }
+
+        public synchronized void record(long nanos) {
+            count++;
+            sumNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            double seconds = nanos / 1e9;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                if (seconds <= BUCKETS[i])
+                    bucketCounts[i]++;
+            }
+        }
+
+        public void record(long duration, TimeUnit unit) {
+            record(unit.toNanos(duration));
+        }
+
+        /**
+         * Starts timing; the duration is recorded when the returned
+         * timing is closed. A timing which is never closed, e.g. because
+         * the phase failed, records nothing.
+         */
+        public Timing time() {
+            return new Timing(this);
+        }
+
+        public synchronized long getCount() { return count; }
+        public synchronized double getSumSeconds() { return sumNanos / 1e9; }
+        public synchronized double getMaxSeconds() { return maxNanos / 1e9; }
+
+        /** Cumulative counts of the {@link #BUCKETS}, as Prometheus wants them */
+        public synchronized long[] getBucketCounts() { return bucketCounts.clone(); }
+    }
+
+    public static final class Timing implements AutoCloseable {
+
+        private final Timer timer;
+        private final long started = System.nanoTime();
+        private boolean closed = false;
+
+        private Timing(Timer timer) {
+            this.timer = timer;
+        }
+
+        @Override
+        public void close() {
+            if (closed)
+                return;
+            closed = true;
+            timer.record(System.nanoTime() - started);
+        }
+    }
+
+    public static final class Counter extends Metric {
+
+        private final LongAdder value = new LongAdder();
+
+        Counter(Id id) {
+            super(id);
+        }
+
+        @Override
+        public String getType() { return "counter"; }
+
+        public void increment() { value.increment(); }
+        public void add(long n) { value.add(n); }
+        public long getValue() { return value.sum(); }
+    }
+
+    public static final class Gauge extends Metric {
+
+        private volatile double value;
+
+        Gauge(Id id) {
+            super(id);
+        }
+
+        @Override
+        public String getType() { return "gauge"; }
+
+        public void set(double value) { this.value = value; }
+        public double getValue() { return value; }
+    }
+}
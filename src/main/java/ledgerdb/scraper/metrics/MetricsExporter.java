@@ -0,0 +1,144 @@
+package ledgerdb.scraper.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes {@link Metrics} to a JSON file and to a file in the Prometheus
+ * text format, for the textfile collector of the node exporter.
+ * <p>
+ * Both files are replaced atomically, so a collector never reads half a
+ * file. The temporary file does not end in ".prom", which the collector
+ * would pick up.
+ */
+public class MetricsExporter {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    public static final String DEFAULT_DIR = "metrics";
+    public static final String FILE_NAME = "ledgerdb-scraper";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Path dir;
+
+    public MetricsExporter(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Writes both files; failures are logged, a run does not fail because
+     * of its metrics.
+     */
+    public void export(Metrics metrics) {
+        List<Metrics.Metric> list = metrics.getMetrics();
+        try {
+            Files.createDirectories(dir);
+            Path json = dir.resolve(FILE_NAME + ".json");
+            write(json, writer -> mapper.writerWithDefaultPrettyPrinter().writeValue(writer, toJson(list)));
+            Path prom = dir.resolve(FILE_NAME + ".prom");
+            write(prom, writer -> writePrometheus(writer, list));
+            logger.debug("Wrote " + list.size() + " metrics to " + json + " and " + prom);
+        } catch (IOException e) {
+            logger.warn("Unable to write metrics to " + dir + ": " + e.getMessage());
+        }
+    }
+
+    private interface Content {
+        void write(Writer writer) throws IOException;
+    }
+
+    private void write(Path file, Content content) throws IOException {
+        Path tmp = Files.createTempFile(dir, FILE_NAME, ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                content.write(writer);
+            }
+            Files.move(tmp, file,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static Map<String, Object> toJson(List<Metrics.Metric> list) {
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (Metrics.Metric metric : list) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("name", metric.getId().getName());
+            entry.put("labels", metric.getId().getLabels());
+            entry.put("type", metric.getType());
+            if (metric instanceof Metrics.Timer) {
+                Metrics.Timer timer = (Metrics.Timer)metric;
+                entry.put("count", timer.getCount());
+                entry.put("sumSeconds", timer.getSumSeconds());
+                entry.put("maxSeconds", timer.getMaxSeconds());
+                Map<String, Long> buckets = new LinkedHashMap<>();
+                long[] counts = timer.getBucketCounts();
+                for (int i = 0; i < counts.length; i++)
+                    buckets.put(format(Metrics.Timer.BUCKETS[i]), counts[i]);
+                entry.put("buckets", buckets);
+            } else if (metric instanceof Metrics.Counter) {
+                entry.put("value", ((Metrics.Counter)metric).getValue());
+            } else {
+                entry.put("value", ((Metrics.Gauge)metric).getValue());
+            }
+            entries.add(entry);
+        }
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("generated", Instant.now().toString());
+        json.put("metrics", entries);
+        return json;
+    }
+
+    private static void writePrometheus(Writer writer, List<Metrics.Metric> list) throws IOException {
+        String family = null;
+        for (Metrics.Metric metric : list) {
+            Metrics.Id id = metric.getId();
+            String name = Metrics.PREFIX + id.getName();
+            // sorted by name, so the series of a family are together
+            if (!id.getName().equals(family)) {
+                family = id.getName();
+                writer.write("# TYPE " + name + " " + metric.getType() + "\n");
+            }
+            if (metric instanceof Metrics.Timer) {
+                Metrics.Timer timer = (Metrics.Timer)metric;
+                long[] counts = timer.getBucketCounts();
+                long count = timer.getCount();
+                for (int i = 0; i < counts.length; i++)
+                    writer.write(series(name + "_bucket", id,
+                            Collections.singletonMap("le", format(Metrics.Timer.BUCKETS[i])), counts[i]));
+                writer.write(series(name + "_bucket", id, Collections.singletonMap("le", "+Inf"), count));
+                writer.write(series(name + "_sum", id, Collections.emptyMap(), format(timer.getSumSeconds())));
+                writer.write(series(name + "_count", id, Collections.emptyMap(), count));
+            } else if (metric instanceof Metrics.Counter) {
+                writer.write(series(name, id, Collections.emptyMap(), ((Metrics.Counter)metric).getValue()));
+            } else {
+                writer.write(series(name, id, Collections.emptyMap(), format(((Metrics.Gauge)metric).getValue())));
+            }
+        }
+    }
+
+    private static String series(String name, Metrics.Id id, Map<String, String> extraLabels, Object value) {
+        String series = id.format(extraLabels);
+        return name + series.substring(id.getName().length()) + " " + value + "\n";
+    }
+
+    private static String format(double value) {
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,147 @@
+package ledgerdb.scraper.parse;
+
+import java.math.BigDecimal;
+
+/**
+ * Parses dollar amounts as shown by the sites, e.g. "$1,234.56",
+ * "-$1,000.00" or "$12", in a single pass without intermediate strings.
+ * <p>
+ * An amount is an optional "-", an optional "$", digits with optional
+ * "," separators, and optional cents: a "." followed by two digits. The
+ * result has scale 2 with cents and 0 without, as
+ * {@code new BigDecimal("1234.56")} and {@code new BigDecimal("12")}
+ * would have. {@link #parseDollarsOrNull} is stricter, for the columns
+ * of a single amount which always show the "$".
+ */
+public final class Amounts {
+
+    /** Digits which always fit in a long */
+    private static final int MAX_DIGITS = 18;
+
+    private Amounts() {}
+
+    /**
+     * @throws IllegalArgumentException if the text is not an amount
+     */
+    public static BigDecimal parse(CharSequence text) {
+        BigDecimal amount = parseOrNull(text);
+        if (amount == null)
+            throw new IllegalArgumentException("Not an amount: \"" + text + "\"");
+        return amount;
+    }
+
+    /**
+     * @return the amount, null if the text is not an amount, e.g. a
+     *      balance cell left empty
+     */
+    public static BigDecimal parseOrNull(CharSequence text) {
+        return parseOrNull(text, false, false);
+    }
+
+    /**
+     * Parses an amount which must have the "$", and the cents if
+     * required, so that a change of the page layout is noticed rather
+     * than read as some other amount.
+     *
+     * @return the amount, null if the text is not such an amount
+     */
+    public static BigDecimal parseDollarsOrNull(CharSequence text, boolean centsRequired) {
+        return parseOrNull(text, true, centsRequired);
+    }
+
+    private static BigDecimal parseOrNull(CharSequence text, boolean dollarRequired, boolean centsRequired) {
+        if (text == null)
+            return null;
+        int length = text.length();
+        int i = 0;
+        boolean negative = false;
+        if (i < length && text.charAt(i) == '-') {
+            negative = true;
+            i++;
+        }
+        if (i < length && text.charAt(i) == '$')
+            i++;
+        else if (dollarRequired)
+            return null;
+        long unscaled = 0;
+        int digits = 0;
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                unscaled = unscaled * 10 + (c - '0');
+                digits++;
+            } else if (c != ',') {
+                break;
+            }
+        }
+        if (digits == 0 || digits > MAX_DIGITS)
+            return null;
+        int scale = 0;
+        if (i < length) {
+            if (length - i != 3 || text.charAt(i) != '.')
+                return null;
+            char c1 = text.charAt(i + 1);
+            char c2 = text.charAt(i + 2);
+            if (c1 < '0' || c1 > '9' || c2 < '0' || c2 > '9' || digits > MAX_DIGITS - 2)
+                return null;
+            unscaled = unscaled * 100 + (c1 - '0') * 10 + (c2 - '0');
+            scale = 2;
+        } else if (centsRequired) {
+            return null;
+        }
+        return BigDecimal.valueOf(negative ? -unscaled : unscaled, scale);
+    }
+
+    /**
+     * Parses an amount given in separate debit and credit columns, one of
+     * which must be blank. Debits are returned negative, whether or not
+     * the site shows them with a "-"; credits must not have one.
+     *
+     * @throws IllegalArgumentException if both or neither column is
+     *      blank, or the amount is not one
+     */
+    public static BigDecimal parseDebitCredit(String debit, String credit) {
+        boolean isDebit = !isBlank(debit);
+        if (isDebit == !isBlank(credit))
+            throw new IllegalArgumentException("Expected either debit or credit: \""
+                    + debit + "\", \"" + credit + "\"");
+        if (isDebit) {
+            BigDecimal amount = parse(debit);
+            return amount.signum() > 0 ? amount.negate() : amount;
+        }
+        if (credit.startsWith("-"))
+            throw new IllegalArgumentException("Negative credit: \"" + credit + "\"");
+        return parse(credit);
+    }
+
+    /**
+     * Parses an amount given in separate debit and credit columns, one of
+     * which must be blank, for sites which show debits negative: a debit
+     * must have a "-", a credit must not.
+     *
+     * @throws IllegalArgumentException if both or neither column is
+     *      blank, the amount is not one, or its sign does not match its
+     *      column
+     */
+    public static BigDecimal parseSignedDebitCredit(String debit, String credit) {
+        boolean isDebit = !isBlank(debit);
+        if (isDebit == !isBlank(credit))
+            throw new IllegalArgumentException("Expected either debit or credit: \""
+                    + debit + "\", \"" + credit + "\"");
+        if (isDebit && !debit.startsWith("-"))
+            throw new IllegalArgumentException("Debit not negative: \"" + debit + "\"");
+        if (!isDebit && credit.startsWith("-"))
+            throw new IllegalArgumentException("Negative credit: \"" + credit + "\"");
+        return parse(isDebit ? debit : credit);
+    }
+
+    private static boolean isBlank(String text) {
+        if (text == null)
+            return true;
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+}
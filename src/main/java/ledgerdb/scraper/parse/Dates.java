@@ -0,0 +1,31 @@
+package ledgerdb.scraper.parse;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parses dates as shown by the sites, with one formatter per pattern,
+ * built on first use and shared by all threads.
+ */
+public final class Dates {
+
+    private static final Map<String, DateTimeFormatter> formatters = new ConcurrentHashMap<>();
+
+    private Dates() {}
+
+    /**
+     * @param pattern {@link DateTimeFormatter} pattern, e.g. "MMM d, yyyy"
+     */
+    public static LocalDate parse(CharSequence text, String pattern) {
+        return LocalDate.parse(text, formatter(pattern));
+    }
+
+    public static DateTimeFormatter formatter(String pattern) {
+        DateTimeFormatter formatter = formatters.get(pattern);
+        if (formatter == null)
+            formatter = formatters.computeIfAbsent(pattern, DateTimeFormatter::ofPattern);
+        return formatter;
+    }
+}
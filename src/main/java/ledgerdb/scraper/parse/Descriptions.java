@@ -0,0 +1,76 @@
+package ledgerdb.scraper.parse;
+
+/**
+ * Cleans up the whitespace of transaction descriptions in a single pass,
+ * returning the text itself when there is nothing to clean up.
+ * Whitespace is {@code \s} in regular expressions: space, tab, line
+ * feed, vertical tab, form feed and carriage return.
+ */
+public final class Descriptions {
+
+    private Descriptions() {}
+
+    /**
+     * Replaces every whitespace character with a space and trims, like
+     * {@code text.replaceAll("\\s", " ").trim()}.
+     */
+    public static String normalize(String text) {
+        return clean(text, false);
+    }
+
+    /**
+     * Replaces runs of whitespace with a single space and trims, like
+     * {@code text.replaceAll("\\s+", " ").trim()}, e.g. for descriptions
+     * wrapped over several lines.
+     */
+    public static String collapse(String text) {
+        return clean(text, true);
+    }
+
+    private static String clean(String text, boolean collapse) {
+        int length = text.length();
+        if (!needsCleaning(text, collapse))
+            return text;
+        StringBuilder sb = new StringBuilder(length);
+        boolean space = false;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (isWhitespace(c)) {
+                if (!(collapse && space))
+                    sb.append(' ');
+                space = true;
+            } else {
+                sb.append(c);
+                space = false;
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    private static boolean needsCleaning(String text, boolean collapse) {
+        int length = text.length();
+        if (length == 0)
+            return false;
+        // trim() also strips control characters
+        if (text.charAt(0) <= ' ' || text.charAt(length - 1) <= ' ')
+            return true;
+        boolean space = false;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == ' ') {
+                if (collapse && space)
+                    return true;
+                space = true;
+            } else if (isWhitespace(c)) {
+                return true;
+            } else {
+                space = false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
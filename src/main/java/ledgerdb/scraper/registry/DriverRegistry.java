@@ -0,0 +1,62 @@
+package ledgerdb.scraper.registry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import ledgerdb.scraper.ScraperDriverBase;
+
+/**
+ * Finds the scraper driver class of an institution in the index generated
+ * by {@link InstitutionProcessor}, without scanning the class path. Only
+ * the requested driver class is loaded.
+ */
+public class DriverRegistry {
+
+    private static final Map<String, String> index = loadIndex();
+
+    private DriverRegistry() {}
+
+    private static Map<String, String> loadIndex() {
+        Map<String, String> map = new HashMap<>();
+        try {
+            Enumeration<URL> urls = DriverRegistry.class.getClassLoader()
+                    .getResources(InstitutionProcessor.INDEX);
+            while (urls.hasMoreElements()) {
+                Properties properties = new Properties();
+                try (InputStream in = urls.nextElement().openStream()) {
+                    properties.load(in);
+                }
+                properties.stringPropertyNames().forEach(institution ->
+                        map.putIfAbsent(institution, properties.getProperty(institution)));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read " + InstitutionProcessor.INDEX, e);
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /** Institutions with a registered driver, mapped to driver class names. */
+    public static Map<String, String> getInstitutions() {
+        return index;
+    }
+
+    /**
+     * @throws IllegalArgumentException if no driver is registered for the
+     *      institution
+     */
+    public static Class<? extends ScraperDriverBase> lookup(String institution) {
+        String className = index.get(institution);
+        if (className == null)
+            throw new IllegalArgumentException("No scraper driver for institution: " + institution);
+        try {
+            return Class.forName(className).asSubclass(ScraperDriverBase.class);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Registered driver class not found: " + className, e);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package ledgerdb.scraper.registry;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the institution a {@link ledgerdb.scraper.ScraperDriverBase}
+ * subclass scrapes, as named in the "institution" property of the site
+ * notes. {@link InstitutionProcessor} collects these at compile time into
+ * the index read by {@link DriverRegistry}.
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface Institution {
+    String value();
+}
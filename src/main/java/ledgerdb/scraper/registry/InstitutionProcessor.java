@@ -0,0 +1,87 @@
+package ledgerdb.scraper.registry;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Writes the {@link #INDEX} resource listing every class annotated with
+ * {@link Institution}, read at run time by {@link DriverRegistry}.
+ * <p>
+ * Compiled before the rest of the sources, see the compile-processor
+ * execution in pom.xml, so it must not refer to other project classes.
+ */
+@SupportedAnnotationTypes("ledgerdb.scraper.registry.Institution")
+public class InstitutionProcessor extends AbstractProcessor {
+
+    /** Index resource, one institution=class name per line. */
+    public static final String INDEX = "META-INF/ledgerdb-scraper/institutions.properties";
+
+    private static final String BASE_CLASS = "ledgerdb.scraper.ScraperDriverBase";
+
+    private final Map<String, String> index = new TreeMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment env) {
+        if (env.processingOver()) {
+            writeIndex();
+            return false;
+        }
+        TypeMirror base = processingEnv.getElementUtils()
+                .getTypeElement(BASE_CLASS)
+                .asType();
+        for (Element element : env.getElementsAnnotatedWith(Institution.class)) {
+            TypeElement type = (TypeElement)element;
+            String institution = element.getAnnotation(Institution.class).value();
+            String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+            if (element.getKind() != ElementKind.CLASS
+                    || element.getModifiers().contains(Modifier.ABSTRACT)
+                    || !processingEnv.getTypeUtils().isAssignable(type.asType(), base)) {
+                error(element, "@Institution class must be a concrete subclass of " + BASE_CLASS);
+                continue;
+            }
+            String other = index.put(institution, className);
+            if (other != null && !other.equals(className))
+                error(element, "Institution " + institution + " is already declared by " + other);
+        }
+        return true;
+    }
+
+    private void writeIndex() {
+        try {
+            FileObject file = processingEnv.getFiler().createResource(
+                    StandardLocation.CLASS_OUTPUT, "", INDEX);
+            try (Writer writer = file.openWriter()) {
+                writer.write("# Generated by " + getClass().getName() + "\n");
+                for (Map.Entry<String, String> entry : index.entrySet())
+                    writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unable to write " + INDEX + ": " + e.getMessage());
+        }
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
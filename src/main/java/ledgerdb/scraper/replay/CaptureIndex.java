@@ -0,0 +1,70 @@
+package ledgerdb.scraper.replay;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.DriverCommand;
+
+/**
+ * Table of contents of a capture directory, stored as "index.json".
+ * <p>
+ * Page {@code i} is what the browser showed after the driver's navigation
+ * command {@code i}, taken just before its next navigation command or at
+ * the end of the run. Which commands count as navigations is fixed by
+ * {@link #isNavigation}, so that a replay of the same driver code lines up
+ * with the capture.
+ */
+class CaptureIndex {
+
+    static final String FILE_NAME = "index.json";
+
+    private static final Set<String> NAVIGATIONS = ImmutableSet.of(
+            DriverCommand.GET,
+            DriverCommand.CLICK_ELEMENT,
+            DriverCommand.SUBMIT_ELEMENT,
+            DriverCommand.CLICK,
+            DriverCommand.GO_BACK,
+            DriverCommand.GO_FORWARD,
+            DriverCommand.REFRESH,
+            "actions");
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public String institution;
+    public String url;
+    public List<Page> pages = new ArrayList<>();
+
+    static boolean isNavigation(Command command) {
+        return NAVIGATIONS.contains(command.getName());
+    }
+
+    static CaptureIndex load(Path dir) throws IOException {
+        return mapper.readValue(dir.resolve(FILE_NAME).toFile(), CaptureIndex.class);
+    }
+
+    void save(Path dir) throws IOException {
+        mapper.writerWithDefaultPrettyPrinter().writeValue(dir.resolve(FILE_NAME).toFile(), this);
+    }
+
+    static class Page {
+        /** File name of the snapshot, null if none could be taken */
+        public String file;
+        /** Scrubbed URL the page was loaded from */
+        public String url;
+        /** Navigation command which led to the page */
+        public String command;
+
+        Page() {}
+
+        Page(String file, String url, String command) {
+            this.file = file;
+            this.url = url;
+            this.command = command;
+        }
+    }
+}
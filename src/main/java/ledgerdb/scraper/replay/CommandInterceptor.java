@@ -0,0 +1,109 @@
+package ledgerdb.scraper.replay;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.TreeMap;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.Response;
+
+/**
+ * Sits between a {@link RemoteWebDriver} and its command executor, seeing
+ * every command the driver code issues, and counts them by name.
+ * <p>
+ * {@link #install()} puts the interceptor in place on a driver which has
+ * already started its session; {@link #close()} takes it out again, which
+ * must happen before the driver is given back to the pool. Commands sent
+ * by subclasses through {@link #send} are not counted.
+ */
+public abstract class CommandInterceptor implements CommandExecutor, AutoCloseable {
+
+    private static final Method SET_COMMAND_EXECUTOR;
+
+    static {
+        try {
+            // protected, meant for subclasses of RemoteWebDriver
+            SET_COMMAND_EXECUTOR = RemoteWebDriver.class.getDeclaredMethod(
+                    "setCommandExecutor", CommandExecutor.class);
+            SET_COMMAND_EXECUTOR.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    protected final RemoteWebDriver driver;
+    private final CommandExecutor delegate;
+
+    private final Map<String, Long> counts = new TreeMap<>();
+    private boolean installed = false;
+
+    protected CommandInterceptor(RemoteWebDriver driver) {
+        this.driver = driver;
+        this.delegate = driver.getCommandExecutor();
+    }
+
+    public void install() {
+        setCommandExecutor(this);
+        installed = true;
+    }
+
+    private void setCommandExecutor(CommandExecutor executor) {
+        try {
+            SET_COMMAND_EXECUTOR.invoke(driver, executor);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Unable to replace command executor", e);
+        }
+    }
+
+    @Override
+    public final Response execute(Command command) throws IOException {
+        synchronized (counts) {
+            counts.merge(command.getName(), 1L, Long::sum);
+        }
+        return intercept(command);
+    }
+
+    /**
+     * Handles a command of the driver code, usually by passing it on with
+     * {@link #proceed}.
+     */
+    protected abstract Response intercept(Command command) throws IOException;
+
+    protected Response proceed(Command command) throws IOException {
+        return delegate.execute(command);
+    }
+
+    /**
+     * Sends a command of the interceptor's own to the browser.
+     */
+    protected Response send(String name, Map<String, ?> parameters) throws IOException {
+        return delegate.execute(new Command(driver.getSessionId(), name, parameters));
+    }
+
+    /** Number of commands seen, by command name. */
+    public Map<String, Long> getCommandCounts() {
+        synchronized (counts) {
+            return new TreeMap<>(counts);
+        }
+    }
+
+    public long getCommandCount() {
+        synchronized (counts) {
+            return counts.values().stream().mapToLong(Long::longValue).sum();
+        }
+    }
+
+    /**
+     * Restores the driver's own command executor.
+     */
+    @Override
+    public void close() throws IOException {
+        if (installed) {
+            setCommandExecutor(delegate);
+            installed = false;
+        }
+    }
+}
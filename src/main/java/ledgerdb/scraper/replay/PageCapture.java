@@ -0,0 +1,109 @@
+package ledgerdb.scraper.replay;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import ledgerdb.scraper.SiteInfo;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.Response;
+
+/**
+ * Saves a scrubbed snapshot of every page a driver sees, for
+ * {@link PageReplay}.
+ * <p>
+ * Snapshots go to a new directory per run under the capture directory,
+ * named after the institution and time. A page's snapshot is taken right
+ * before the driver navigates away from it, after the driver has waited
+ * for everything it reads on the page, and once more on {@link #close()}.
+ * Pages which did not change between navigations share a file.
+ */
+public class PageCapture extends CommandInterceptor {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final String SNAPSHOT_SCRIPT
+            = "return [location.href, document.documentElement.outerHTML];";
+
+    private final Path dir;
+    private final PageScrubber scrubber;
+    private final CaptureIndex index = new CaptureIndex();
+
+    /** Snapshot files by content, to share files between equal pages */
+    private final Map<String, String> files = new HashMap<>();
+    private String lastCommand;
+
+    public PageCapture(RemoteWebDriver driver, Path captureDir, SiteInfo siteInfo) throws IOException {
+        super(driver);
+        this.dir = captureDir.resolve(siteInfo.institution + "-"
+                + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")));
+        Files.createDirectories(dir);
+        this.scrubber = new PageScrubber(siteInfo.logon, siteInfo.password);
+        index.institution = siteInfo.institution;
+        index.url = scrubber.scrub(siteInfo.url);
+        logger.info("Capturing pages to " + dir);
+    }
+
+    @Override
+    protected Response intercept(Command command) throws IOException {
+        if (CaptureIndex.isNavigation(command)) {
+            if (lastCommand != null)
+                snapshot();
+            lastCommand = command.getName();
+        }
+        return proceed(command);
+    }
+
+    private void snapshot() {
+        String file = null;
+        String url = null;
+        try {
+            Response r = send(DriverCommand.EXECUTE_SCRIPT, ImmutableMap.of(
+                    "script", SNAPSHOT_SCRIPT,
+                    "args", ImmutableList.of()));
+            List<?> value = (List<?>)r.getValue();
+            url = scrubber.scrub(String.valueOf(value.get(0)));
+            String html = "<!DOCTYPE html>\n" + scrubber.scrubPage(String.valueOf(value.get(1)));
+            file = files.get(html);
+            if (file == null) {
+                file = String.format("page-%03d.html", index.pages.size());
+                Files.write(dir.resolve(file), html.getBytes(StandardCharsets.UTF_8));
+                files.put(html, file);
+            }
+        } catch (IOException | RuntimeException e) {
+            // e.g. an alert is open; replay keeps showing the previous page
+            logger.warn("Unable to capture page " + index.pages.size() + ": " + e.getMessage());
+        }
+        index.pages.add(new CaptureIndex.Page(file, url, lastCommand));
+    }
+
+    /**
+     * Takes the last snapshot, writes the index and takes the interceptor
+     * out.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (lastCommand != null) {
+                snapshot();
+                lastCommand = null;
+                index.save(dir);
+                logger.info("Captured " + index.pages.size() + " pages in " + files.size()
+                        + " files to " + dir);
+            }
+        } finally {
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package ledgerdb.scraper.replay;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.ErrorCodes;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.Response;
+
+/**
+ * Runs a driver against the pages of a capture instead of the bank.
+ * <p>
+ * Navigation commands of the driver code are not sent to the browser,
+ * since clicking a captured link or form would go to the bank. Instead
+ * the browser loads the captured page which followed the same navigation,
+ * from the {@link ReplayServer}. All other commands, finding elements and
+ * reading them above all, run against the page as usual, and are counted.
+ */
+public class PageReplay extends CommandInterceptor {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private final List<String> pageUrls;
+    private int navigations = 0;
+
+    public PageReplay(RemoteWebDriver driver, ReplayServer server) {
+        super(driver);
+        this.pageUrls = server.getPageUrls();
+    }
+
+    @Override
+    protected Response intercept(Command command) throws IOException {
+        if (!CaptureIndex.isNavigation(command))
+            return proceed(command);
+
+        int page = navigations++;
+        if (page >= pageUrls.size()) {
+            logger.warn("Replay ran past the " + pageUrls.size() + " captured pages on "
+                    + command.getName());
+        } else if (pageUrls.get(page) != null) {
+            logger.debug("Replaying " + command.getName() + " as page " + page);
+            send(DriverCommand.GET, ImmutableMap.of("url", pageUrls.get(page)));
+        }
+        Response response = new Response(driver.getSessionId());
+        response.setStatus(ErrorCodes.SUCCESS);
+        response.setState("success");
+        return response;
+    }
+}
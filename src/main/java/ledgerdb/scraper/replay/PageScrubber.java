@@ -0,0 +1,73 @@
+package ledgerdb.scraper.replay;
+
+import com.google.common.base.Strings;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Removes what should not leave the machine from captured pages: the
+ * logon and password, account and card numbers, and scripts.
+ * <p>
+ * Runs of seven or more digits and card numbers written in groups of four
+ * keep their length and last four digits, the others become zeros, so
+ * that drivers parsing them still find digits where they expect them and
+ * accounts stay distinguishable. Scripts are dropped since replayed pages
+ * are static; left in, they would call the bank.
+ */
+class PageScrubber {
+
+    private static final Pattern ACCOUNT_NUMBER = Pattern.compile("(?<!\\d)\\d{7,}(?!\\d)");
+    private static final Pattern CARD_NUMBER
+            = Pattern.compile("(?<!\\d)\\d{4}([ -])\\d{4}\\1\\d{4}\\1\\d{4}(?!\\d)");
+    private static final Pattern SCRIPT
+            = Pattern.compile("<script\\b.*?</script\\s*>", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private static final String MASK = "x";
+
+    private final List<String> secrets = new ArrayList<>();
+
+    /**
+     * @param secrets strings replaced wherever they occur, e.g. the logon;
+     *      null and empty ones are ignored
+     */
+    PageScrubber(String... secrets) {
+        for (String secret : secrets) {
+            if (!Strings.isNullOrEmpty(secret))
+                this.secrets.add(secret);
+        }
+        // longest first, in case one contains another
+        this.secrets.sort((a, b) -> b.length() - a.length());
+    }
+
+    String scrubPage(String html) {
+        return scrub(SCRIPT.matcher(html).replaceAll(""));
+    }
+
+    String scrub(String text) {
+        for (String secret : secrets)
+            text = text.replace(secret, Strings.repeat(MASK, secret.length()));
+        text = mask(CARD_NUMBER, text);
+        return mask(ACCOUNT_NUMBER, text);
+    }
+
+    private static String mask(Pattern pattern, String text) {
+        Matcher matcher = pattern.matcher(text);
+        if (!matcher.find())
+            return text;
+        StringBuffer sb = new StringBuffer(text.length());
+        do {
+            String number = matcher.group();
+            int keep = number.length() - 4;
+            StringBuilder masked = new StringBuilder(number.length());
+            for (int i = 0; i < number.length(); i++) {
+                char c = number.charAt(i);
+                masked.append(i < keep && Character.isDigit(c) ? '0' : c);
+            }
+            matcher.appendReplacement(sb, masked.toString());
+        } while (matcher.find());
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+}
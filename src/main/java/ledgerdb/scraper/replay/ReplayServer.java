@@ -0,0 +1,104 @@
+package ledgerdb.scraper.replay;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import ledgerdb.scraper.SiteInfo;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Serves the snapshots of a capture directory on the loopback interface,
+ * for browsers replaying it.
+ */
+public class ReplayServer implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    /** Logon and password typed into replayed login forms */
+    private static final String REPLAY_CREDENTIAL = "replay";
+
+    private final Path dir;
+    private final CaptureIndex index;
+    /** Files which may be served; nothing else in the directory is */
+    private final Set<String> files;
+    private final HttpServer server;
+
+    private ReplayServer(Path dir) throws IOException {
+        this.dir = dir;
+        this.index = CaptureIndex.load(dir);
+        this.files = index.pages.stream()
+                .map(page -> page.file)
+                .filter(file -> file != null)
+                .collect(Collectors.toSet());
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        logger.info("Replaying " + index.institution + " capture " + dir + " at " + getUrl(""));
+    }
+
+    /**
+     * Starts serving the capture directory written by {@link PageCapture}.
+     */
+    public static ReplayServer start(Path dir) throws IOException {
+        return new ReplayServer(dir);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String file = exchange.getRequestURI().getPath().substring(1);
+            if (!files.contains(file)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            byte[] content = Files.readAllBytes(dir.resolve(file));
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    String getUrl(String file) {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort() + "/" + file;
+    }
+
+    /**
+     * @return URLs of the captured pages, in the order of the driver's
+     *      navigations; null where no snapshot could be taken
+     */
+    List<String> getPageUrls() {
+        return Collections.unmodifiableList(index.pages.stream()
+                .map(page -> page.file == null ? null : getUrl(page.file))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Site to run the driver of the captured institution against; its URL
+     * is the first captured page.
+     */
+    public SiteInfo getSiteInfo() {
+        String url = index.pages.isEmpty() || index.pages.get(0).file == null
+                ? "about:blank"
+                : getUrl(index.pages.get(0).file);
+        return new SiteInfo(REPLAY_CREDENTIAL, REPLAY_CREDENTIAL, url, index.institution);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
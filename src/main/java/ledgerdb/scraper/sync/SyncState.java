@@ -0,0 +1,102 @@
+package ledgerdb.scraper.sync;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Watermarks of the accounts of one LedgerDB instance, stored in a local
+ * JSON file. Shared by all jobs scraping into the instance; each job
+ * collects its watermarks in a {@link SyncTracker} and commits them here
+ * once its statements have been uploaded.
+ */
+public class SyncState {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Path file;
+    private final Map<Integer, Watermark> watermarks = new TreeMap<>();
+
+    private SyncState(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the state from the file; a missing or unreadable file gives an
+     * empty state, i.e. full scans.
+     */
+    public static SyncState load(Path file) {
+        SyncState state = new SyncState(file);
+        if (!Files.exists(file))
+            return state;
+        try {
+            StateFile content = mapper.readValue(file.toFile(), StateFile.class);
+            state.watermarks.putAll(content.accounts);
+            logger.debug("Loaded " + state.watermarks.size() + " account watermarks from " + file);
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable sync state " + file + ": " + e.getMessage());
+        }
+        return state;
+    }
+
+    /**
+     * @return the watermark of the account, or null if it was never synced
+     */
+    public synchronized Watermark get(int accountId) {
+        return watermarks.get(accountId);
+    }
+
+    /**
+     * Stores the watermarks and writes the file.
+     */
+    public synchronized void commit(Map<Integer, Watermark> updates) {
+        if (updates.isEmpty())
+            return;
+        watermarks.putAll(updates);
+        StateFile content = new StateFile();
+        content.accounts.putAll(watermarks);
+        try {
+            if (file.getParent() != null)
+                Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), "sync", ".tmp");
+            mapper.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), content);
+            Files.move(tmp, file,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Unable to write sync state " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * How far an account has been synced: every row dated before
+     * {@link #date} has been posted, and the newest such row showed running
+     * balance {@link #balance}.
+     */
+    public static class Watermark {
+        /** ISO date of the newest synced day, whose rows are always rescanned */
+        public String date;
+        /** Running balance of the newest row dated before {@link #date} */
+        public BigDecimal balance;
+
+        Watermark() {}
+
+        Watermark(String date, BigDecimal balance) {
+            this.date = date;
+            this.balance = balance;
+        }
+    }
+
+    static class StateFile {
+        public Map<Integer, Watermark> accounts = new TreeMap<>();
+    }
+}
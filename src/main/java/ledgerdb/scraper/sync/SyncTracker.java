@@ -0,0 +1,137 @@
+package ledgerdb.scraper.sync;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import ledgerdb.scraper.dto.StatementDTO;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Incremental sync of the accounts scraped by one job.
+ * <p>
+ * Drivers of institutions showing a running balance walk their transaction
+ * tables, newest row first, through an {@link AccountScan} and stop as soon
+ * as {@link AccountScan#include} returns false:
+ * <pre>
+ * AccountScan scan = syncTracker.begin(accountId);
+ * for (...) {
+ *     if (!scan.include(s, balance))
+ *         break;
+ *     serverSession.merge(s);
+ * }
+ * scan.complete();
+ * </pre>
+ * A scan stops at the first row dated before the account's watermark, but
+ * only if that row shows the same running balance as the row which ended
+ * the previous scan. Any other balance means rows were added, removed or
+ * changed below the watermark, and the table is scanned in full. Rows of
+ * the watermark day itself are always rescanned, since more of them may
+ * have been posted since.
+ * <p>
+ * New watermarks take effect on {@link #commit()}, which the caller does
+ * only once the job's statements have been uploaded.
+ */
+public class SyncTracker {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private final SyncState state;
+    private final boolean fullScan;
+    private final Map<Integer, SyncState.Watermark> updates = new HashMap<>();
+
+    /**
+     * @param fullScan ignore the stored watermarks, but still record new
+     *      ones
+     */
+    public SyncTracker(SyncState state, boolean fullScan) {
+        this.state = state;
+        this.fullScan = fullScan;
+    }
+
+    public AccountScan begin(int accountId) {
+        return new AccountScan(accountId, fullScan ? null : state.get(accountId));
+    }
+
+    /**
+     * Stores the watermarks of all completed scans.
+     */
+    public void commit() {
+        synchronized (updates) {
+            state.commit(updates);
+            updates.clear();
+        }
+    }
+
+    public class AccountScan {
+
+        private final int accountId;
+        private final SyncState.Watermark watermark;
+        private final LocalDate watermarkDate;
+
+        private boolean full;
+        private boolean ordered = true;
+        private int rows = 0;
+        private LocalDate previousDate;
+        private LocalDate newestDate;
+        private BigDecimal boundaryBalance;
+
+        private AccountScan(int accountId, SyncState.Watermark watermark) {
+            this.accountId = accountId;
+            this.watermark = watermark;
+            this.watermarkDate = watermark == null || watermark.balance == null
+                    ? null
+                    : LocalDate.parse(watermark.date);
+            this.full = watermarkDate == null;
+        }
+
+        /**
+         * @param s statement of the row, with its date set
+         * @param balance running balance shown on the row, null if none
+         * @return false if this and all following rows have been synced
+         *      before and should be skipped
+         */
+        public boolean include(StatementDTO s, BigDecimal balance) {
+            LocalDate date = LocalDate.parse(s.getDate());
+            if (previousDate != null && date.isAfter(previousDate) && ordered) {
+                logger.debug("Rows of account " + accountId + " are not newest first, scanning in full");
+                ordered = false;
+                full = true;
+            }
+            previousDate = date;
+            if (newestDate == null)
+                newestDate = date;
+
+            if (balance != null && boundaryBalance == null && date.isBefore(newestDate))
+                boundaryBalance = balance;
+
+            if (!full && balance != null && date.isBefore(watermarkDate)) {
+                if (balance.compareTo(watermark.balance) == 0) {
+                    logger.debug("Account " + accountId + " synced up to " + watermarkDate
+                            + ", skipping older rows");
+                    return false;
+                }
+                logger.warn("Balance chain of account " + accountId + " broken at " + date
+                        + ": expected " + watermark.balance + ", found " + balance
+                        + ", scanning in full");
+                full = true;
+            }
+            rows++;
+            return true;
+        }
+
+        /**
+         * Records the new watermark of the account. Call only after the
+         * table has been walked without errors.
+         */
+        public void complete() {
+            if (rows == 0 || !ordered)
+                return;
+            SyncState.Watermark update = new SyncState.Watermark(newestDate.toString(), boundaryBalance);
+            synchronized (updates) {
+                updates.put(accountId, update);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ledgerdb.scraper.trace;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Durations of the WebDriver commands of a run, totalled by call site,
+ * command and locator, as recorded by {@link CommandTracer}s.
+ * <p>
+ * Shared by all jobs of a run; the report ranks the call sites by the
+ * total time their commands took, which includes the browser's and the
+ * network's share of every round trip.
+ */
+public class CommandTrace {
+
+    public static final int DEFAULT_REPORT_SIZE = 20;
+
+    private final Map<Key, Entry> entries = new HashMap<>();
+
+    public synchronized void record(String callSite, String command, String locator, long nanos) {
+        Entry entry = entries.computeIfAbsent(new Key(callSite, command, locator), Entry::new);
+        entry.count++;
+        entry.totalNanos += nanos;
+        entry.maxNanos = Math.max(entry.maxNanos, nanos);
+    }
+
+    /**
+     * @return the entries with the largest total time first
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> list = new ArrayList<>();
+        entries.values().forEach(entry -> list.add(entry.copy()));
+        list.sort(Comparator.comparingLong((Entry entry) -> entry.totalNanos).reversed());
+        return list;
+    }
+
+    /**
+     * @return the hottest call sites, one per line, or null if no command
+     *      was traced
+     */
+    public String report(int size) {
+        List<Entry> list = getEntries();
+        if (list.isEmpty())
+            return null;
+        long count = list.stream().mapToLong(Entry::getCount).sum();
+        long nanos = list.stream().mapToLong(entry -> entry.totalNanos).sum();
+        StringBuilder sb = new StringBuilder(String.format(
+                "WebDriver commands: %d in %d ms, hottest call sites:", count, nanos / 1000000));
+        sb.append(System.lineSeparator()).append(String.format("%9s %7s %8s %8s  %s",
+                "total ms", "count", "avg ms", "max ms", "call site, command, locator"));
+        for (Entry entry : list.subList(0, Math.min(size, list.size()))) {
+            sb.append(System.lineSeparator()).append(String.format("%9d %7d %8.1f %8d  %s %s%s",
+                    entry.totalNanos / 1000000,
+                    entry.count,
+                    entry.totalNanos / 1e6 / entry.count,
+                    entry.maxNanos / 1000000,
+                    entry.key.callSite,
+                    entry.key.command,
+                    entry.key.locator == null ? "" : " " + entry.key.locator));
+        }
+        if (list.size() > size)
+            sb.append(System.lineSeparator()).append(list.size() - size).append(" more");
+        return sb.toString();
+    }
+
+    private static final class Key {
+        final String callSite;
+        final String command;
+        final String locator;
+
+        Key(String callSite, String command, String locator) {
+            this.callSite = callSite;
+            this.command = command;
+            this.locator = locator;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key)o;
+            return callSite.equals(other.callSite)
+                    && command.equals(other.command)
+                    && Objects.equals(locator, other.locator);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(callSite, command, locator);
+        }
+    }
+
+    public static final class Entry {
+        private final Key key;
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        private Entry(Key key) {
+            this.key = key;
+        }
+
+        private Entry copy() {
+            Entry copy = new Entry(key);
+            copy.count = count;
+            copy.totalNanos = totalNanos;
+            copy.maxNanos = maxNanos;
+            return copy;
+        }
+
+        /** Driver method issuing the commands, e.g. "RbcScraperDriver.scrape:97" */
+        public String getCallSite() { return key.callSite; }
+        public String getCommand() { return key.command; }
+        /** XPath, script or attribute name, null if the command has none */
+        public String getLocator() { return key.locator; }
+        public long getCount() { return count; }
+        public long getTotalNanos() { return totalNanos; }
+        public long getMaxNanos() { return maxNanos; }
+    }
+}
@@ -0,0 +1,159 @@
+package ledgerdb.scraper.trace;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import ledgerdb.scraper.replay.CommandInterceptor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.Response;
+
+/**
+ * Times every WebDriver command of a driver and records it in a
+ * {@link CommandTrace} with its locator and the driver method which
+ * issued it.
+ * <p>
+ * The locator of a find command is its strategy and value; element
+ * commands such as getElementText or clickElement get the locator the
+ * element was found by, and executeScript the start of its script. The
+ * call site is the innermost frame in an institution driver, so that
+ * commands of helpers like {@code HtmlTable} count for the driver
+ * method calling them. Failed commands, e.g. finds which waited for
+ * the implicit wait to run out, are recorded too.
+ * <p>
+ * Walks the stack once per command, which is cheap next to a round trip
+ * to the browser. Installed on top of any other interceptor, it must be
+ * closed first.
+ */
+public class CommandTracer extends CommandInterceptor {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final String DRIVER_PACKAGE = "ledgerdb.scraper.institution.";
+    private static final String SCRAPER_PACKAGE = "ledgerdb.scraper.";
+    private static final String[] INTERNAL_PACKAGES = {
+        "ledgerdb.scraper.trace.", "ledgerdb.scraper.replay." };
+    private static final int MAX_SCRIPT_LENGTH = 40;
+
+    /** Element reference keys of the JSON wire protocol and of W3C */
+    private static final String[] ELEMENT_KEYS = {
+        "ELEMENT", "element-6066-11e4-a52e-4f735466cecf" };
+
+    private final CommandTrace trace;
+
+    /** Locators of the elements found, by element id */
+    private final Map<String, String> locators = new HashMap<>();
+
+    public CommandTracer(RemoteWebDriver driver, CommandTrace trace) {
+        super(driver);
+        this.trace = trace;
+    }
+
+    @Override
+    protected Response intercept(Command command) throws IOException {
+        String callSite = getCallSite();
+        String name = command.getName();
+        String locator = getLocator(command, false);
+        if (DriverCommand.GET_ELEMENT_ATTRIBUTE.equals(name))
+            name += "(" + command.getParameters().get("name") + ")";
+        long started = System.nanoTime();
+        Response response = null;
+        try {
+            response = proceed(command);
+            return response;
+        } finally {
+            long nanos = System.nanoTime() - started;
+            trace.record(callSite, name, locator, nanos);
+            if (logger.isTraceEnabled())
+                logger.trace(String.format("%s %s %s: %.1f ms%s", callSite, name, locator, nanos / 1e6,
+                        response == null ? ", failed" : ""));
+            if (response != null)
+                rememberElements(getLocator(command, true), response.getValue());
+        }
+    }
+
+    /**
+     * @param found whether to give the locator of the elements a find
+     *      command found, rather than of the element it searched in
+     */
+    private String getLocator(Command command, boolean found) {
+        Map<String, ?> parameters = command.getParameters();
+        Object using = parameters.get("using");
+        if (using != null) {
+            // findElement(s) and findChildElement(s), which also have the parent id
+            String locator = using + " " + parameters.get("value");
+            if (found || parameters.get("id") == null)
+                return locator;
+            return element(parameters.get("id")) + " " + locator;
+        }
+        if (found)
+            return null;
+        Object script = parameters.get("script");
+        if (script != null) {
+            String text = script.toString().replaceAll("\\s+", " ").trim();
+            return text.length() > MAX_SCRIPT_LENGTH ? text.substring(0, MAX_SCRIPT_LENGTH) + "..." : text;
+        }
+        Object id = parameters.get("id");
+        return id != null ? element(id) : null;
+    }
+
+    private String element(Object id) {
+        synchronized (locators) {
+            return locators.getOrDefault(String.valueOf(id), "element");
+        }
+    }
+
+    private void rememberElements(String locator, Object value) {
+        if (locator == null)
+            return;
+        if (value instanceof List) {
+            for (Object item : (List<?>)value)
+                rememberElements(locator, item);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>)value;
+            for (String key : ELEMENT_KEYS) {
+                Object id = map.get(key);
+                if (id != null) {
+                    synchronized (locators) {
+                        locators.put(id.toString(), locator);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return "Class.method:line" of the innermost driver frame, or of
+     *      the innermost scraper frame outside the interceptors
+     */
+    private static String getCallSite() {
+        StackTraceElement fallback = null;
+        for (StackTraceElement frame : new Throwable().getStackTrace()) {
+            String className = frame.getClassName();
+            if (className.startsWith(DRIVER_PACKAGE))
+                return format(frame);
+            if (fallback == null && className.startsWith(SCRAPER_PACKAGE) && !isInternal(className))
+                fallback = frame;
+        }
+        return fallback != null ? format(fallback) : "?";
+    }
+
+    private static boolean isInternal(String className) {
+        for (String prefix : INTERNAL_PACKAGES) {
+            if (className.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    private static String format(StackTraceElement frame) {
+        String className = frame.getClassName();
+        return className.substring(className.lastIndexOf('.') + 1)
+                + "." + frame.getMethodName() + ":" + frame.getLineNumber();
+    }
+}
@@ -0,0 +1,152 @@
+package ledgerdb.scraper.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces page navigations, shared by all jobs of a run.
+ * <p>
+ * Each institution has a token bucket refilled at its rate (navigations per
+ * minute) and holding at most {@code burst} tokens, so that a bank is never
+ * asked for more pages than it tolerates, however many jobs use it at once.
+ * After its token, a navigation waits a random jitter, then takes one of the
+ * global concurrency slots until its {@link Permit} is closed:
+ * <pre>
+ * try (Pacer.Permit permit = pacer.acquire(INSTITUTION)) {
+ *     link.click();
+ *     waiter.pageReady();
+ * }
+ * </pre>
+ */
+public class Pacer {
+
+    public static final double DEFAULT_RATE = 20; // per minute
+    public static final int DEFAULT_BURST = 3;
+    public static final int DEFAULT_CONCURRENCY = 2;
+    public static final long DEFAULT_JITTER = 1000; // ms
+
+    private final double defaultRate;
+    private final Map<String, Double> rates;
+    private final int burst;
+    private final long jitterMillis;
+    private final Semaphore slots;
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * @param rates navigations per minute by institution, others use the
+     *      default rate
+     * @param burst navigations allowed back to back after a quiet period
+     * @param concurrency navigations in progress at once over all
+     *      institutions
+     * @param jitterMillis maximum random delay added to each navigation
+     */
+    public Pacer(double defaultRate, Map<String, Double> rates, int burst,
+            int concurrency, long jitterMillis) {
+        this.defaultRate = defaultRate;
+        this.rates = new HashMap<>(rates);
+        this.burst = burst;
+        this.jitterMillis = jitterMillis;
+        this.slots = new Semaphore(concurrency, true);
+    }
+
+    /**
+     * Blocks until the institution may navigate.
+     *
+     * @return permit which must be closed once the page has loaded
+     */
+    public Permit acquire(String institution) {
+        TokenBucket bucket = buckets.computeIfAbsent(institution,
+                k -> new TokenBucket(rates.getOrDefault(k, defaultRate), burst));
+        try {
+            sleepNanos(bucket.take());
+            if (jitterMillis > 0)
+                Thread.sleep(ThreadLocalRandom.current().nextLong(jitterMillis + 1));
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for navigation permit", e);
+        }
+        return new Permit();
+    }
+
+    private static void sleepNanos(long nanos) throws InterruptedException {
+        if (nanos > 0)
+            TimeUnit.NANOSECONDS.sleep(nanos);
+    }
+
+    /**
+     * Parses "RATE" or "RATE,INSTITUTION=RATE,..." into per-institution
+     * rates; the entry without institution, if any, is returned under the
+     * key null.
+     *
+     * @throws IllegalArgumentException if a rate is malformed or not positive
+     */
+    public static Map<String, Double> parseRates(String value) {
+        Map<String, Double> rates = new HashMap<>();
+        for (String entry : value.split(",")) {
+            String[] pair = entry.split("=", 2);
+            String institution = pair.length == 2 ? pair[0].trim() : null;
+            double rate;
+            try {
+                rate = Double.parseDouble(pair[pair.length - 1].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid rate: " + entry, e);
+            }
+            if (!(rate > 0))
+                throw new IllegalArgumentException("Invalid rate: " + entry);
+            rates.put(institution, rate);
+        }
+        return rates;
+    }
+
+    /**
+     * Global concurrency slot held during a navigation.
+     */
+    public class Permit implements AutoCloseable {
+
+        private boolean released = false;
+
+        private Permit() {}
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                slots.release();
+            }
+        }
+    }
+
+    private static class TokenBucket {
+
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        TokenBucket(double ratePerMinute, int burst) {
+            this.tokensPerNano = ratePerMinute / TimeUnit.MINUTES.toNanos(1);
+            this.capacity = Math.max(1, burst);
+            this.tokens = capacity;
+        }
+
+        /**
+         * Takes a token, going into debt if there is none, so that
+         * concurrent callers are served in order.
+         *
+         * @return how long the caller must wait for its token, in nanoseconds
+         */
+        synchronized long take() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilled) * tokensPerNano);
+            refilled = now;
+            tokens -= 1;
+            return tokens >= 0 ? 0 : (long)(-tokens / tokensPerNano);
+        }
+    }
+}
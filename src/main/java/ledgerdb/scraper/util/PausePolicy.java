@@ -0,0 +1,53 @@
+package ledgerdb.scraper.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Short random pause between user-like actions on a page, such as filling
+ * in a form, so that the scraper does not type faster than a person could.
+ * Waiting for pages to load is not its job, see {@link Waiter}; nor is
+ * spacing out page navigations, see {@link Pacer}.
+ */
+public class PausePolicy {
+
+    public static final String DEFAULT_RANGE = "200-800";
+
+    private final long minMillis;
+    private final long maxMillis;
+
+    public PausePolicy(long minMillis, long maxMillis) {
+        if (minMillis < 0 || maxMillis < minMillis)
+            throw new IllegalArgumentException("Invalid pause range: " + minMillis + "-" + maxMillis);
+        this.minMillis = minMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * @param range "MIN-MAX" or "N" milliseconds
+     * @throws IllegalArgumentException if the range is malformed
+     */
+    public static PausePolicy parse(String range) {
+        String[] bounds = range.split("-", 2);
+        try {
+            long min = Long.parseLong(bounds[0].trim());
+            long max = bounds.length > 1 ? Long.parseLong(bounds[1].trim()) : min;
+            return new PausePolicy(min, max);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid pause range: " + range, e);
+        }
+    }
+
+    public void pause() {
+        if (maxMillis == 0)
+            return;
+        long time = ThreadLocalRandom.current().nextLong(minMillis, maxMillis + 1);
+        try {
+            Thread.sleep(time);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() { return minMillis + "-" + maxMillis; }
+}
@@ -0,0 +1,129 @@
+package ledgerdb.scraper.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * How long waits on the pages of one institution took in past runs, and
+ * the timeouts derived from that.
+ * <p>
+ * The last {@link #MAX_SAMPLES} durations are kept for each wait label. Once
+ * a label has {@link #MIN_SAMPLES} samples, its timeout is the 99th
+ * percentile times {@link #MARGIN_FACTOR} plus {@link #MARGIN}, clamped to
+ * {@link #MIN_TIMEOUT}..{@link #MAX_TIMEOUT}. A wait that times out is
+ * recorded with its timeout, so that timeouts loosen when a site gets
+ * slower and tighten again as fast samples replace it.
+ */
+public class TimingProfile {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    public static final int MIN_SAMPLES = 5;
+    public static final int MAX_SAMPLES = 100;
+    public static final double MARGIN_FACTOR = 1.5;
+    public static final long MARGIN = 1000; // ms
+    public static final long MIN_TIMEOUT = 2000; // ms
+    public static final long MAX_TIMEOUT = 120000; // ms
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final Path file;
+    private final Map<String, Deque<Long>> samples = new LinkedHashMap<>();
+    private boolean dirty = false;
+
+    private TimingProfile(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the profile from the file; a missing or unreadable file gives
+     * an empty profile.
+     */
+    public static TimingProfile load(Path file) {
+        TimingProfile profile = new TimingProfile(file);
+        if (!Files.exists(file))
+            return profile;
+        try {
+            ProfileFile content = mapper.readValue(file.toFile(), ProfileFile.class);
+            content.samples.forEach((label, list) -> {
+                Deque<Long> deque = new ArrayDeque<>(list);
+                while (deque.size() > MAX_SAMPLES)
+                    deque.removeFirst();
+                profile.samples.put(label, deque);
+            });
+            logger.debug("Loaded " + profile.samples.size() + " timing labels from " + file);
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable timing profile " + file + ": " + e.getMessage());
+        }
+        return profile;
+    }
+
+    public synchronized void record(String label, long millis) {
+        Deque<Long> deque = samples.computeIfAbsent(label, k -> new ArrayDeque<>());
+        deque.addLast(millis);
+        if (deque.size() > MAX_SAMPLES)
+            deque.removeFirst();
+        dirty = true;
+    }
+
+    /**
+     * @return the learned timeout for the label in milliseconds, or the
+     *      default if there are not enough samples
+     */
+    public synchronized long getTimeout(String label, long defaultTimeout) {
+        Deque<Long> deque = samples.get(label);
+        if (deque == null || deque.size() < MIN_SAMPLES)
+            return defaultTimeout;
+        return timeout(percentile(deque, 0.99));
+    }
+
+    private static long timeout(long p99) {
+        long timeout = (long)(p99 * MARGIN_FACTOR) + MARGIN;
+        return Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, timeout));
+    }
+
+    private static long percentile(Deque<Long> deque, double p) {
+        List<Long> sorted = new ArrayList<>(deque);
+        Collections.sort(sorted);
+        int index = (int)Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    /**
+     * Writes the profile back to its file if anything was recorded.
+     */
+    public synchronized void save() {
+        if (!dirty)
+            return;
+        ProfileFile content = new ProfileFile();
+        samples.forEach((label, deque) -> content.samples.put(label, new ArrayList<>(deque)));
+        try {
+            if (file.getParent() != null)
+                Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), "timing", ".tmp");
+            mapper.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), content);
+            Files.move(tmp, file,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            logger.warn("Unable to write timing profile " + file + ": " + e.getMessage());
+        }
+    }
+
+    static class ProfileFile {
+        public Map<String, List<Long>> samples = new LinkedHashMap<>();
+    }
+}
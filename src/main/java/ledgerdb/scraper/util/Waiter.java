@@ -0,0 +1,180 @@
+package ledgerdb.scraper.util;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.inject.Inject;
+import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.support.ui.ExpectedConditions;
+
+/**
+ * Waits for explicit conditions instead of sleeping.
+ * <p>
+ * Plain {@code findElement} calls keep an implicit wait. While a condition
+ * is polled, and while {@link #probe probing} for elements which are
+ * usually absent, the implicit wait is switched off, so that an absent
+ * element costs one round trip instead of the whole implicit wait.
+ * <p>
+ * Timeouts come from the institution's {@link TimingProfile}: every
+ * {@link #until(String, Function)} records how long it took under its
+ * description, and the next run uses the timeout learned for that
+ * description; until enough samples exist, {@link #DEFAULT_TIMEOUT}
+ * applies. The implicit wait stays at {@link #IMPLICIT_WAIT}: plain
+ * {@code findElement} calls are not measured, so no learned timeout
+ * speaks for them.
+ */
+public class Waiter {
+
+    /** Default implicit wait of every browser, in milliseconds */
+    public static final long IMPLICIT_WAIT = 10000;
+    /** Default timeout of {@link #until}, in milliseconds */
+    public static final long DEFAULT_TIMEOUT = 30000;
+
+    private static final long POLL_INTERVAL = 100;
+
+    private final RemoteWebDriver driver;
+    private final PausePolicy pausePolicy;
+    private final TimingProfile timingProfile;
+    
+    /** Nesting depth of {@link #withoutImplicitWait} */
+    private int depth = 0;
+
+    @Inject
+    public Waiter(RemoteWebDriver driver, PausePolicy pausePolicy, TimingProfile timingProfile) {
+        this.driver = driver;
+        this.pausePolicy = pausePolicy;
+        this.timingProfile = timingProfile;
+        driver.manage().timeouts().implicitlyWait(IMPLICIT_WAIT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Polls the condition until it returns neither null nor false.
+     * {@link NoSuchElementException} and
+     * {@link StaleElementReferenceException} count as not yet. The timeout
+     * is learned from previous waits with the same description.
+     *
+     * @param description what is waited for, used as timing label and in
+     *      the timeout message
+     * @throws TimeoutException if the condition is not met in time
+     */
+    public <T> T until(String description, Function<? super RemoteWebDriver, T> condition) {
+        long timeout = timingProfile.getTimeout(description, DEFAULT_TIMEOUT);
+        long started = System.nanoTime();
+        try {
+            T value = until(description, condition, timeout);
+            timingProfile.record(description,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            return value;
+        } catch (TimeoutException e) {
+            timingProfile.record(description, timeout);
+            throw e;
+        }
+    }
+
+    /**
+     * Polls the condition with a fixed timeout, which is neither learned
+     * nor recorded; for waits on the user rather than on the site.
+     */
+    public <T> T until(String description, Function<? super RemoteWebDriver, T> condition,
+            long timeoutMillis) {
+        return withoutImplicitWait(() -> {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            RuntimeException last = null;
+            for (;;) {
+                try {
+                    T value = condition.apply(driver);
+                    if (value != null && !Boolean.FALSE.equals(value))
+                        return value;
+                } catch (NoSuchElementException | StaleElementReferenceException e) {
+                    last = e;
+                }
+                if (System.nanoTime() >= deadline)
+                    throw new TimeoutException("Timed out after " + timeoutMillis
+                            + " ms waiting for " + description, last);
+                try {
+                    Thread.sleep(POLL_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TimeoutException("Interrupted waiting for " + description, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until an element matching the locator is displayed.
+     */
+    public WebElement until(By locator) {
+        return until(locator.toString(), displayed(locator));
+    }
+
+    public WebElement until(By locator, long timeoutMillis) {
+        return until(locator.toString(), displayed(locator), timeoutMillis);
+    }
+
+    private static Function<RemoteWebDriver, WebElement> displayed(By locator) {
+        return d -> {
+            for (WebElement e : d.findElements(locator)) {
+                if (e.isDisplayed())
+                    return e;
+            }
+            return null;
+        };
+    }
+
+    /**
+     * Waits until the element is no longer attached to the page, after a
+     * click replaced the page, or the part of it which showed the element.
+     */
+    public void stale(WebElement element) {
+        until("element replaced", ExpectedConditions.stalenessOf(element)::apply);
+    }
+
+    /**
+     * Waits until the document has finished loading. Right after a click,
+     * this may still be the document being left: wait until one of its
+     * elements is {@link #stale} first.
+     */
+    public void pageReady() {
+        until("document ready", d -> "complete".equals(
+                d.executeScript("return document.readyState")));
+    }
+
+    /**
+     * Returns the elements matching the locator right now, without waiting
+     * for them to appear.
+     */
+    public List<WebElement> probe(By locator) {
+        return probe(driver, locator);
+    }
+
+    public List<WebElement> probe(SearchContext context, By locator) {
+        return withoutImplicitWait(() -> context.findElements(locator));
+    }
+
+    /**
+     * Pauses before a user-like action, as configured by the
+     * {@link PausePolicy}.
+     */
+    public void pause() {
+        pausePolicy.pause();
+    }
+
+    private <T> T withoutImplicitWait(Supplier<T> supplier) {
+        if (depth++ == 0)
+            driver.manage().timeouts().implicitlyWait(0, TimeUnit.MILLISECONDS);
+        try {
+            return supplier.get();
+        } finally {
+            if (--depth == 0)
+                driver.manage().timeouts().implicitlyWait(IMPLICIT_WAIT, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package ledgerdb.scraper.kdbx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+/**
+ * Reads the fixture databases in src/test/resources, all protected by
+ * the password "test-password" and holding the same entries:
+ * <ul>
+ * <li>"rbc" and "mbna" in group "Banks", the password of "rbc" with
+ *      non-ASCII characters and an older password in its history;
+ * <li>"ledgerdb" in the subgroup "Servers";
+ * <li>"deleted" in the recycle bin.
+ * </ul>
+ * kdbx3-aes-salsa20.kdbx is KDBX 3.1 with AES, the AES-KDF, a gzipped
+ * payload and Salsa20 protected values; kdbx4-chacha20.kdbx is KDBX 4
+ * with ChaCha20, the AES-KDF, no compression and ChaCha20 protected
+ * values. kdbx4-argon2d-aes.kdbx is KDBX 4.1 with AES, Argon2d and a
+ * gzipped payload, and kdbx4-argon2id-chacha20.kdbx is KDBX 4.1 with
+ * ChaCha20, Argon2id and no compression; both use 64 KiB of memory, two
+ * iterations and two lanes, and ChaCha20 protected values.
+ */
+public class KdbxDatabaseTest {
+
+    private static final byte[] PASSWORD = "test-password".getBytes(StandardCharsets.UTF_8);
+
+    private static final String[] FIXTURES = {
+            "kdbx3-aes-salsa20.kdbx", "kdbx4-chacha20.kdbx",
+            "kdbx4-argon2d-aes.kdbx", "kdbx4-argon2id-chacha20.kdbx" };
+
+    private static Path fixture(String name) throws URISyntaxException {
+        return Paths.get(KdbxDatabaseTest.class.getResource(name).toURI());
+    }
+
+    private static KdbxEntry entry(KdbxDatabase database, String title) {
+        return database.getEntries().stream()
+                .filter(entry -> title.equals(entry.getTitle()))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No entry " + title));
+    }
+
+    private static void assertEntries(KdbxDatabase database) {
+        List<String> titles = database.getEntries().stream()
+                .map(KdbxEntry::getTitle)
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList("rbc", "mbna", "ledgerdb"), titles);
+
+        KdbxEntry rbc = entry(database, "rbc");
+        assertEquals("Banks", rbc.getGroup());
+        assertEquals("alice", rbc.getField("UserName"));
+        assertEquals("pässwörd", rbc.getField("Password"));
+        assertEquals("https://www.rbcroyalbank.com/", rbc.getField("URL"));
+        assertEquals("institution=rbc", rbc.getField("Notes"));
+        assertTrue(rbc.isProtected("Password"));
+        assertFalse(rbc.isProtected("UserName"));
+        assertEquals(Arrays.asList("Title", "UserName", "Password", "URL", "Notes"),
+                Arrays.asList(rbc.getFieldNames().toArray()));
+        assertNull(rbc.getField("Missing"));
+
+        // decrypted after the history of "rbc", in the same key stream
+        assertEquals("mbna-secret", entry(database, "mbna").getField("Password"));
+
+        KdbxEntry ledgerdb = entry(database, "ledgerdb");
+        assertEquals("Servers", ledgerdb.getGroup());
+        assertEquals("server-secret", ledgerdb.getField("Password"));
+        assertEquals("", ledgerdb.getField("Notes"));
+    }
+
+    @Test
+    public void readsKdbx3() throws Exception {
+        try (KdbxDatabase database = KdbxDatabase.open(fixture("kdbx3-aes-salsa20.kdbx"), PASSWORD)) {
+            assertEntries(database);
+        }
+    }
+
+    @Test
+    public void readsKdbx4() throws Exception {
+        try (KdbxDatabase database = KdbxDatabase.open(fixture("kdbx4-chacha20.kdbx"), PASSWORD)) {
+            assertEntries(database);
+        }
+    }
+
+    @Test
+    public void readsKdbx4Argon2d() throws Exception {
+        try (KdbxDatabase database = KdbxDatabase.open(fixture("kdbx4-argon2d-aes.kdbx"), PASSWORD)) {
+            assertEntries(database);
+        }
+    }
+
+    @Test
+    public void readsKdbx4Argon2id() throws Exception {
+        try (KdbxDatabase database = KdbxDatabase.open(fixture("kdbx4-argon2id-chacha20.kdbx"), PASSWORD)) {
+            assertEntries(database);
+        }
+    }
+
+    @Test
+    public void rejectsWrongPassword() throws Exception {
+        for (String name : FIXTURES) {
+            try {
+                KdbxDatabase.open(fixture(name), "wrong".getBytes(StandardCharsets.UTF_8));
+                fail("Opened " + name + " with a wrong password");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Invalid password"));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedFile() throws Exception {
+        byte[] data = Files.readAllBytes(fixture("kdbx4-chacha20.kdbx"));
+        Path file = Files.createTempFile("truncated", ".kdbx");
+        try {
+            Files.write(file, Arrays.copyOf(data, data.length / 2));
+            KdbxDatabase.open(file, PASSWORD);
+            fail("Opened a truncated file");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws Exception {
+        Path file = Files.createTempFile("other", ".kdbx");
+        try {
+            Files.write(file, "not a database".getBytes(StandardCharsets.UTF_8));
+            KdbxDatabase.open(file, PASSWORD);
+            fail("Opened a text file");
+        } catch (IOException e) {
+            assertEquals("Not a KDBX file", e.getMessage());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void closeWipesEntries() throws Exception {
+        KdbxDatabase database = KdbxDatabase.open(fixture("kdbx4-chacha20.kdbx"), PASSWORD);
+        KdbxEntry rbc = entry(database, "rbc");
+        database.close();
+        assertTrue(database.getEntries().isEmpty());
+        assertNull(rbc.getField("Password"));
+    }
+
+    @Test
+    public void leavesPasswordUnchanged() throws Exception {
+        byte[] password = PASSWORD.clone();
+        KdbxDatabase.open(fixture("kdbx3-aes-salsa20.kdbx"), password).close();
+        assertTrue(Arrays.equals(PASSWORD, password));
+    }
+}
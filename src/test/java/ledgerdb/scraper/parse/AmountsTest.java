@@ -0,0 +1,163 @@
+package ledgerdb.scraper.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import org.junit.Test;
+
+public class AmountsTest {
+
+    private static final String[] AMOUNTS = {
+            "$0", "$0.00", "$12", "$12.30", "$1,234.56", "$1,000", "$1,234,567.89",
+            "-$0.01", "-$1,000.00", "-$12", "$000,012.00", "$123456789012345.67" };
+
+    private static final String[] NOT_AMOUNTS = {
+            "", " ", "$", "-", "-$", "$.50", "$1.5", "$1.500", "$1.", "$1.ab", "$ 1.00",
+            "$1.00 ", " $1.00", "--$1.00", "$-1.00", "$$1.00", "$1e3", "USD 1.00", "(1.00)" };
+
+    /** The regular expression the balances were parsed with before */
+    private static BigDecimal parseWithRegex(String text) {
+        if (!text.matches("^-?\\$[\\d,]+(\\.\\d\\d)?$"))
+            return null;
+        return new BigDecimal(text.replaceAll("[^-\\d.]", ""));
+    }
+
+    /** The regular expressions RBC debits and credits were parsed with before */
+    private static BigDecimal parseSignedDebitCreditWithRegex(String debit, String credit) {
+        if (debit.equals("") == credit.equals(""))
+            throw new IllegalArgumentException();
+        String amount = debit.equals("") ? credit : debit;
+        if (!amount.matches("^-?\\$[\\d,]+\\.\\d\\d$"))
+            throw new IllegalArgumentException();
+        if (amount != (amount.startsWith("-") ? debit : credit))
+            throw new IllegalArgumentException();
+        return new BigDecimal(amount.replaceAll("[^-\\d.]", ""));
+    }
+
+    /** The regular expressions PC Financial debits and credits were parsed with before */
+    private static BigDecimal parseDebitCreditWithRegex(String debit, String credit) {
+        if (debit.equals("") == credit.equals(""))
+            throw new IllegalArgumentException();
+        String amount = debit.equals("") ? credit : debit;
+        if (!amount.matches("^\\$[\\d,]+(\\.\\d\\d)?$"))
+            throw new IllegalArgumentException();
+        if (!debit.equals(""))
+            amount = "-" + amount;
+        return new BigDecimal(amount.replaceAll("[^-\\d.]", ""));
+    }
+
+    private static void assertRejected(String debit, String credit, boolean signed) {
+        try {
+            if (signed)
+                Amounts.parseSignedDebitCredit(debit, credit);
+            else
+                Amounts.parseDebitCredit(debit, credit);
+            fail("Parsed \"" + debit + "\", \"" + credit + "\"");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void parsesLikeRegex() {
+        for (String text : AMOUNTS) {
+            BigDecimal expected = parseWithRegex(text);
+            // equals() also compares the scale
+            assertEquals(text, expected, Amounts.parseOrNull(text));
+            assertEquals(text, expected, Amounts.parse(text));
+        }
+    }
+
+    @Test
+    public void rejectsLikeRegex() {
+        for (String text : NOT_AMOUNTS) {
+            assertNull(text, parseWithRegex(text));
+            assertNull(text, Amounts.parseOrNull(text));
+            try {
+                Amounts.parse(text);
+                fail("Parsed " + text);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertNull(Amounts.parseOrNull(null));
+    }
+
+    @Test
+    public void dollarSignIsOptional() {
+        assertEquals(new BigDecimal("1234.56"), Amounts.parseOrNull("1,234.56"));
+        assertEquals(new BigDecimal("-12"), Amounts.parseOrNull("-12"));
+    }
+
+    @Test
+    public void parsesDollarsLikeRegex() {
+        String[] texts = { "$12", "$12.30", "-$1,000.00", "12.30", "-12", "$1.5", "" };
+        for (String text : texts) {
+            // CapitalOne, then MBNA, parsed with these before
+            assertEquals(text, text.matches("^-?\\$[\\d,]+\\.\\d\\d$") ? parseWithRegex(text) : null,
+                    Amounts.parseDollarsOrNull(text, true));
+            assertEquals(text, parseWithRegex(text), Amounts.parseDollarsOrNull(text, false));
+        }
+        assertNull(Amounts.parseDollarsOrNull(null, false));
+    }
+
+    @Test
+    public void rejectsAmountsNotFittingInLong() {
+        assertEquals(new BigDecimal("999999999999999999"), Amounts.parseOrNull("$999,999,999,999,999,999"));
+        assertEquals(new BigDecimal("9999999999999999.99"), Amounts.parseOrNull("$9999999999999999.99"));
+        assertNull(Amounts.parseOrNull("$1,000,000,000,000,000,000"));
+        assertNull(Amounts.parseOrNull("$99999999999999999.99"));
+    }
+
+    @Test
+    public void parsesSignedDebitCreditLikeRegex() {
+        String[][] rows = {
+                { "-$1,000.00", "" }, { "-$0.01", "" }, { "", "$1,234.56" }, { "", "$0.00" } };
+        for (String[] row : rows) {
+            assertEquals(row[0] + row[1], parseSignedDebitCreditWithRegex(row[0], row[1]),
+                    Amounts.parseSignedDebitCredit(row[0], row[1]));
+        }
+    }
+
+    @Test
+    public void rejectsSignedDebitCreditWithWrongSign() {
+        String[][] rows = {
+                { "$1,000.00", "" }, { "", "-$1,234.56" }, { "", "" }, { "-$1.00", "$1.00" },
+                { "-$1.0", "" }, { "", "$" } };
+        for (String[] row : rows) {
+            try {
+                parseSignedDebitCreditWithRegex(row[0], row[1]);
+                fail("Regex parsed \"" + row[0] + "\", \"" + row[1] + "\"");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            assertRejected(row[0], row[1], true);
+        }
+        assertRejected(null, null, true);
+    }
+
+    @Test
+    public void parsesDebitCreditLikeRegex() {
+        String[][] rows = {
+                { "$1,000.00", "" }, { "$12", "" }, { "", "$1,234.56" }, { "", "$7" } };
+        for (String[] row : rows) {
+            assertEquals(row[0] + row[1], parseDebitCreditWithRegex(row[0], row[1]),
+                    Amounts.parseDebitCredit(row[0], row[1]));
+        }
+        // debits shown negative stay negative
+        assertEquals(new BigDecimal("-1000.00"), Amounts.parseDebitCredit("-$1,000.00", null));
+        assertEquals(new BigDecimal("5.00"), Amounts.parseDebitCredit(" ", "$5.00"));
+    }
+
+    @Test
+    public void rejectsDebitCredit() {
+        assertRejected("", "", false);
+        assertRejected(null, " ", false);
+        assertRejected("$1.00", "$1.00", false);
+        assertRejected("", "-$1.00", false);
+        assertRejected("$1.0", "", false);
+        assertRejected("", "n/a", false);
+    }
+}
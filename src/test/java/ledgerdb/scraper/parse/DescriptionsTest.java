@@ -0,0 +1,47 @@
+package ledgerdb.scraper.parse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class DescriptionsTest {
+
+    private static final String[] TEXTS = {
+            "", " ", "PAYROLL DEPOSIT", "  PAYROLL DEPOSIT  ", "PAYROLL  DEPOSIT",
+            "PAYROLL\nDEPOSIT", "PAYROLL \r\n DEPOSIT\n", "\tTIM HORTONS #1234\t",
+            "A\u000BB\fC", "\u0001CONTROL\u0001", "A \u0001 B", "A \u0001", "\u00A0NBSP\u00A0",
+            "Interac purchase - 1234 \n\n   SHOPPERS DRUG MART" };
+
+    @Test
+    public void normalizesLikeRegex() {
+        for (String text : TEXTS)
+            assertEquals(text, text.replaceAll("\\s", " ").trim(), Descriptions.normalize(text));
+    }
+
+    @Test
+    public void collapsesLikeRegex() {
+        for (String text : TEXTS)
+            assertEquals(text, text.replaceAll("\\s+", " ").trim(), Descriptions.collapse(text));
+    }
+
+    @Test
+    public void collapsesLikeOldRbcRegex() {
+        // \p{Space} is the same set as \s without UNICODE_CHARACTER_CLASS
+        for (String text : TEXTS)
+            assertEquals(text, text.replaceAll("\\p{Space}+", " ").trim(), Descriptions.collapse(text));
+    }
+
+    @Test
+    public void returnsCleanTextItself() {
+        String text = "PAYROLL DEPOSIT";
+        assertSame(text, Descriptions.normalize(text));
+        assertSame(text, Descriptions.collapse(text));
+    }
+
+    @Test
+    public void normalizeKeepsRuns() {
+        assertEquals("A  B", Descriptions.normalize("A \nB"));
+        assertEquals("A B", Descriptions.collapse("A \nB"));
+    }
+}
@@ -0,0 +1,252 @@
+package ledgerdb.scraper.stub;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * In-memory stand-in for a LedgerDB instance, implementing the endpoints
+ * {@link ledgerdb.scraper.ServerSession} and
+ * {@link ledgerdb.scraper.AccountIdResolver} use:
+ * <ul>
+ * <li>{@code GET /} answers anything, as a connectivity check;
+ * <li>{@code GET /institution_link/INSTITUTION[/REFERENCE]} lists or looks
+ *      up links; unknown references are linked to a new account on the
+ *      fly;
+ * <li>{@code POST /statement} and {@code POST /statement/batch} store
+ *      statements, answering "0" for one already stored with the same
+ *      date, account, amount, description and sequence, its new id
+ *      otherwise;
+ * <li>{@code GET /statement} lists all stored statements.
+ * </ul>
+ * Every request is delayed by a base latency plus a per-statement latency,
+ * scaled by a log-normal factor so that some requests are much slower than
+ * the median, as with a real database. A share of statement requests can
+ * be made to fail with status 500. Credentials are not checked.
+ */
+public class StubLedgerServer implements AutoCloseable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    public static final long DEFAULT_LATENCY = 20; // ms per request
+    public static final long DEFAULT_STATEMENT_LATENCY = 1; // ms per statement
+
+    /** Standard deviation of the log of the latency factor */
+    private static final double LATENCY_SIGMA = 0.5;
+
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+
+    private final long latencyMillis;
+    private final long statementLatencyMillis;
+    private final double failureRate;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /** Account ids by institution and reference */
+    private final Map<String, Map<String, Integer>> links = new TreeMap<>();
+    /** Statement ids by duplicate detection key */
+    private final Map<List<Object>, Long> statementIds = new HashMap<>();
+    private final List<JsonNode> statements = new ArrayList<>();
+    private int nextAccountId = 1;
+    private long nextStatementId = 1;
+
+    private final AtomicLong countRequests = new AtomicLong();
+    private final AtomicLong countInserted = new AtomicLong();
+    private final AtomicLong countDuplicates = new AtomicLong();
+    private final AtomicLong countFailed = new AtomicLong();
+
+    /**
+     * @param port port on the loopback interface, 0 for any free one
+     * @param failureRate share of statement requests answered with 500
+     */
+    public StubLedgerServer(int port, long latencyMillis, long statementLatencyMillis,
+            double failureRate) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.statementLatencyMillis = statementLatencyMillis;
+        this.failureRate = failureRate;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+        logger.info("Stub LedgerDB server listening at " + getUrl());
+    }
+
+    public String getUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort() + "/";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        countRequests.incrementAndGet();
+        try {
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+            if (path[0].equals("institution_link") && method.equals("GET")) {
+                delay(0);
+                if (path.length == 2)
+                    respond(exchange, 200, listLinks(path[1]));
+                else if (path.length == 3)
+                    respond(exchange, 200, getLink(path[1], path[2]));
+                else
+                    respond(exchange, 404, null);
+            } else if (path[0].equals("statement") && method.equals("POST")) {
+                JsonNode body;
+                try (InputStream in = exchange.getRequestBody()) {
+                    body = mapper.readTree(in);
+                }
+                boolean batch = path.length == 2 && path[1].equals("batch");
+                delay(batch ? body.size() : 1);
+                if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+                    countFailed.incrementAndGet();
+                    respond(exchange, 500, "Injected failure");
+                } else if (batch) {
+                    ArrayNode statuses = mapper.createArrayNode();
+                    for (JsonNode s : body)
+                        statuses.add(String.valueOf(insert(s)));
+                    respond(exchange, 200, statuses);
+                } else {
+                    respond(exchange, 200, String.valueOf(insert(body)));
+                }
+            } else if (path[0].equals("statement") && method.equals("GET")) {
+                delay(0);
+                synchronized (this) {
+                    respond(exchange, 200, mapper.valueToTree(statements));
+                }
+            } else {
+                respond(exchange, 200, "LedgerDB stub");
+            }
+        } catch (RuntimeException e) {
+            logger.error("Request failed: " + exchange.getRequestURI(), e);
+            respond(exchange, 500, e.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void delay(int statementCount) {
+        double factor = Math.exp(ThreadLocalRandom.current().nextGaussian() * LATENCY_SIGMA);
+        long millis = Math.round((latencyMillis + statementLatencyMillis * statementCount) * factor);
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized ArrayNode listLinks(String institution) {
+        ArrayNode list = mapper.createArrayNode();
+        links.getOrDefault(institution, new TreeMap<>()).forEach((reference, accountId) ->
+                list.add(link(institution, reference, accountId)));
+        return list;
+    }
+
+    private synchronized ObjectNode getLink(String institution, String reference) {
+        int accountId = links.computeIfAbsent(institution, k -> new TreeMap<>())
+                .computeIfAbsent(reference, k -> nextAccountId++);
+        return link(institution, reference, accountId);
+    }
+
+    private static ObjectNode link(String institution, String reference, int accountId) {
+        ObjectNode link = mapper.createObjectNode();
+        link.put("institution", institution);
+        link.put("reference", reference);
+        link.put("accountId", accountId);
+        return link;
+    }
+
+    /**
+     * @return id of the new statement, 0 if it is a duplicate
+     */
+    private synchronized long insert(JsonNode s) {
+        List<Object> key = Arrays.asList(
+                s.path("statementDate").asText(),
+                s.path("accountId").asInt(),
+                s.path("amount").isNumber()
+                        ? s.path("amount").decimalValue().stripTrailingZeros()
+                        : null,
+                s.path("description").asText(),
+                s.path("sequence").asInt());
+        if (statementIds.containsKey(key)) {
+            countDuplicates.incrementAndGet();
+            return 0;
+        }
+        long id = nextStatementId++;
+        statementIds.put(key, id);
+        statements.add(s);
+        countInserted.incrementAndGet();
+        return id;
+    }
+
+    private static void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] content;
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        } else if (body instanceof JsonNode) {
+            content = mapper.writeValueAsBytes(body);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+        } else {
+            content = body.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        }
+        exchange.sendResponseHeaders(status, content.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content);
+        }
+    }
+
+    public long getCountRequests() { return countRequests.get(); }
+    public long getCountInserted() { return countInserted.get(); }
+    public long getCountDuplicates() { return countDuplicates.get(); }
+    public long getCountFailed() { return countFailed.get(); }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs the stub until the process is killed.
+     * <p>
+     * Arguments: [PORT [LATENCY_MS [STATEMENT_LATENCY_MS [FAILURE_RATE]]]]
+     */
+    public static void main(String... args) throws IOException {
+        StubLedgerServer server = new StubLedgerServer(
+                args.length > 0 ? Integer.parseInt(args[0]) : 0,
+                args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_LATENCY,
+                args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_STATEMENT_LATENCY,
+                args.length > 3 ? Double.parseDouble(args[3]) : 0);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            logger.info(String.format("%d requests, %d inserted, %d duplicates, %d failed",
+                    server.getCountRequests(), server.getCountInserted(),
+                    server.getCountDuplicates(), server.getCountFailed()));
+        }));
+    }
+}
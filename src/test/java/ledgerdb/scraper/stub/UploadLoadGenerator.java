@@ -0,0 +1,226 @@
+package ledgerdb.scraper.stub;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import ledgerdb.scraper.InstanceInfo;
+import ledgerdb.scraper.ServerSession;
+import ledgerdb.scraper.ServerTransport;
+import ledgerdb.scraper.dto.StatementDTO;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Pushes a synthetic statement stream through {@link ServerSession} and
+ * reports throughput and request latency, to compare changes to the
+ * upload path run over run.
+ * <p>
+ * The stream is generated from a fixed seed, so every run uploads the same
+ * statements. It is pushed several times, each pass in a new session like
+ * a new scraper run: the first pass inserts, the later ones only hit the
+ * server's duplicate detection. Without {@code --url}, an embedded
+ * {@link StubLedgerServer} is started. The per-statement status output of
+ * {@link ServerSession} is discarded while passes run.
+ */
+public class UploadLoadGenerator {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final String INSTITUTION = "loadgen";
+    private static final String[] DESCRIPTIONS = {
+        "POS PURCHASE GROCERY STORE #%d",
+        "INTERAC E-TRANSFER %d",
+        "PAYROLL DEPOSIT %d",
+        "BILL PAYMENT HYDRO ONE %d",
+        "ATM WITHDRAWAL BRANCH %d",
+        "MONTHLY FEE",
+        "ONLINE PURCHASE AMAZON.CA %d",
+    };
+
+    private final Options options = new Options();
+    private final CommandLine commandLine;
+
+    private UploadLoadGenerator(String... args) {
+        options.addOption(Option.builder().longOpt("url").hasArg().argName("URL")
+                .desc("LedgerDB instance to load, default an embedded stub server.").build());
+        options.addOption(Option.builder().longOpt("statements").hasArg().argName("N")
+                .desc("Statements per pass. (Default: 10000)").build());
+        options.addOption(Option.builder().longOpt("accounts").hasArg().argName("N")
+                .desc("Accounts the statements are spread over. (Default: 5)").build());
+        options.addOption(Option.builder().longOpt("passes").hasArg().argName("N")
+                .desc("Number of times the stream is pushed. (Default: 2)").build());
+        options.addOption(Option.builder().longOpt("rate").hasArg().argName("N")
+                .desc("Statements merged per second, 0 for as fast as possible. (Default: 0)").build());
+        options.addOption(Option.builder().longOpt("batch-size").hasArg().argName("N")
+                .desc("Statements per request. (Default: 50)").build());
+        options.addOption(Option.builder().longOpt("upload-threads").hasArg().argName("N")
+                .desc("Background upload threads. (Default: 2)").build());
+        options.addOption(Option.builder().longOpt("http-connector").hasArg().argName("NAME")
+                .desc("apache or default. (Default: apache)").build());
+        options.addOption(Option.builder().longOpt("latency").hasArg().argName("MS")
+                .desc("Median latency per request of the embedded stub. (Default: "
+                        + StubLedgerServer.DEFAULT_LATENCY + ")").build());
+        options.addOption(Option.builder().longOpt("statement-latency").hasArg().argName("MS")
+                .desc("Median latency per statement of the embedded stub. (Default: "
+                        + StubLedgerServer.DEFAULT_STATEMENT_LATENCY + ")").build());
+        try {
+            commandLine = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("java ledgerdb.scraper.stub.UploadLoadGenerator [OPTIONS]", options);
+            System.exit(2);
+            throw new Error(); // not reached
+        }
+    }
+
+    private long getNumber(String option, long defaultValue) {
+        return Long.parseLong(commandLine.getOptionValue(option, String.valueOf(defaultValue)));
+    }
+
+    private void run() throws Exception {
+        int statementCount = (int)getNumber("statements", 10000);
+        int accounts = (int)getNumber("accounts", 5);
+        int passes = (int)getNumber("passes", 2);
+        long rate = getNumber("rate", 0);
+        int batchSize = (int)getNumber("batch-size", 50);
+        int uploadThreads = (int)getNumber("upload-threads", 2);
+        ServerTransport.Connector connector = ServerTransport.Connector.valueOf(
+                commandLine.getOptionValue("http-connector", "apache").toUpperCase());
+
+        StubLedgerServer stub = null;
+        String url = commandLine.getOptionValue("url");
+        if (url == null) {
+            stub = new StubLedgerServer(0,
+                    getNumber("latency", StubLedgerServer.DEFAULT_LATENCY),
+                    getNumber("statement-latency", StubLedgerServer.DEFAULT_STATEMENT_LATENCY),
+                    0);
+            url = stub.getUrl();
+        }
+
+        try (ServerTransport transport = new ServerTransport(
+                new InstanceInfo(url, "loadgen", "loadgen"), connector,
+                ServerTransport.DEFAULT_CONNECT_TIMEOUT, ServerTransport.DEFAULT_READ_TIMEOUT,
+                uploadThreads + 1)) {
+            for (int pass = 1; pass <= passes; pass++) {
+                PassResult result = runPass(transport, statementCount, accounts, rate,
+                        batchSize, uploadThreads);
+                logger.info(String.format("Pass %d: %s", pass, result));
+            }
+        } finally {
+            if (stub != null)
+                stub.close();
+        }
+    }
+
+    private static PassResult runPass(ServerTransport transport, int statementCount, int accounts,
+            long rate, int batchSize, int uploadThreads) throws Exception {
+        LatencyRecorder latencies = new LatencyRecorder();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {}
+            @Override
+            public void write(byte[] b, int off, int len) {}
+        }));
+        long started = System.nanoTime();
+        ServerSession session = new ServerSession(transport, batchSize, 0, uploadThreads, null, null);
+        try {
+            session.setRequestListener(latencies::record);
+            int[] accountIds = new int[accounts];
+            for (int a = 0; a < accounts; a++)
+                accountIds[a] = session.getAccountId(INSTITUTION, "account-" + (a + 1));
+
+            Random random = new Random(42);
+            long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+            // statements come account by account, as from a driver
+            for (int i = 0; i < statementCount; i++) {
+                if (interval > 0) {
+                    long delay = started + i * interval - System.nanoTime();
+                    if (delay > 0)
+                        TimeUnit.NANOSECONDS.sleep(delay);
+                }
+                int account = (int)((long)i * accounts / statementCount);
+                session.merge(statement(random, accountIds[account], i));
+            }
+        } finally {
+            session.close();
+            System.setOut(out);
+        }
+        long elapsed = System.nanoTime() - started;
+        return new PassResult(statementCount, session.getCountInserted(), elapsed, latencies);
+    }
+
+    private static StatementDTO statement(Random random, int accountId, int i) {
+        StatementDTO s = new StatementDTO();
+        s.setAccountId(accountId);
+        s.setDate(LocalDate.of(2017, 1, 1).plusDays(i / 20));
+        String description = DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)];
+        s.setDescription(String.format(description, random.nextInt(1000)));
+        s.setAmount(BigDecimal.valueOf(random.nextInt(200000) - 100000, 2));
+        return s;
+    }
+
+    /** Request durations of one pass. */
+    static class LatencyRecorder {
+
+        private final List<Long> nanos = new ArrayList<>();
+
+        synchronized void record(long duration) {
+            nanos.add(duration);
+        }
+
+        synchronized long[] sorted() {
+            long[] sorted = nanos.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    static class PassResult {
+
+        final int statements;
+        final int inserted;
+        final long elapsedNanos;
+        final long[] latencies;
+
+        PassResult(int statements, int inserted, long elapsedNanos, LatencyRecorder latencies) {
+            this.statements = statements;
+            this.inserted = inserted;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies.sorted();
+        }
+
+        /** Nearest-rank percentile of the request latencies, in ms */
+        double percentile(double p) {
+            if (latencies.length == 0)
+                return 0;
+            int rank = (int)Math.ceil(p / 100 * latencies.length);
+            return latencies[Math.max(rank, 1) - 1] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("%d statements (%d inserted) in %.2f s, %.0f statements/s,"
+                    + " %d requests, latency p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+                    statements, inserted, seconds, statements / seconds,
+                    latencies.length, percentile(50), percentile(99), percentile(100));
+        }
+    }
+
+    public static void main(String... args) throws Exception {
+        new UploadLoadGenerator(args).run();
+    }
+}
@@ -0,0 +1,103 @@
+package ledgerdb.scraper.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import org.junit.Test;
+
+public class CronScheduleTest {
+
+    private static final ZoneId ZONE = ZoneId.of("America/Toronto");
+
+    private static ZonedDateTime time(int year, int month, int day, int hour, int minute) {
+        return ZonedDateTime.of(year, month, day, hour, minute, 0, 0, ZONE);
+    }
+
+    private static void assertNext(String expression, ZonedDateTime after, ZonedDateTime expected) {
+        assertEquals(expression + " after " + after,
+                expected, CronSchedule.parse(expression).next(after));
+    }
+
+    @Test
+    public void nextIsStrictlyAfter() {
+        assertNext("0 * * * *", time(2017, 3, 31, 10, 0), time(2017, 3, 31, 11, 0));
+        assertNext("* * * * *", time(2017, 3, 31, 10, 0), time(2017, 3, 31, 10, 1));
+    }
+
+    @Test
+    public void ignoresSeconds() {
+        assertNext("*/15 * * * *", time(2017, 3, 31, 10, 7).withSecond(30), time(2017, 3, 31, 10, 15));
+        assertNext("*/15 * * * *", time(2017, 3, 31, 10, 59).withSecond(59), time(2017, 3, 31, 11, 0));
+    }
+
+    @Test
+    public void listsRangesAndSteps() {
+        assertNext("0,30 9-17 * * *", time(2017, 3, 31, 8, 45), time(2017, 3, 31, 9, 0));
+        assertNext("0,30 9-17 * * *", time(2017, 3, 31, 9, 0), time(2017, 3, 31, 9, 30));
+        assertNext("0,30 9-17 * * *", time(2017, 3, 31, 17, 30), time(2017, 4, 1, 9, 0));
+        assertNext("10-40/10 * * * *", time(2017, 3, 31, 9, 40), time(2017, 3, 31, 10, 10));
+        // a step after a single number runs to the end of the range
+        assertNext("0 20/2 * * *", time(2017, 3, 31, 21, 0), time(2017, 3, 31, 22, 0));
+    }
+
+    @Test
+    public void rollsOverDaysMonthsAndYears() {
+        assertNext("30 6 * * *", time(2017, 3, 31, 7, 0), time(2017, 4, 1, 6, 30));
+        assertNext("0 0 1 * *", time(2017, 12, 15, 0, 0), time(2018, 1, 1, 0, 0));
+        assertNext("0 0 31 * *", time(2017, 4, 1, 0, 0), time(2017, 5, 31, 0, 0));
+        assertNext("0 0 29 2 *", time(2017, 3, 1, 0, 0), time(2020, 2, 29, 0, 0));
+    }
+
+    @Test
+    public void daysOfWeek() {
+        // Friday 2017-03-31 to Monday
+        assertNext("30 6 * * 1-5", time(2017, 3, 31, 7, 0), time(2017, 4, 3, 6, 30));
+        // 0 and 7 are both Sunday
+        assertNext("0 12 * * 0", time(2017, 3, 31, 0, 0), time(2017, 4, 2, 12, 0));
+        assertNext("0 12 * * 7", time(2017, 3, 31, 0, 0), time(2017, 4, 2, 12, 0));
+    }
+
+    @Test
+    public void dayOfMonthOrDayOfWeek() {
+        // the first Friday of 2017 comes before the 13th
+        assertNext("0 0 13 * 5", time(2017, 1, 1, 0, 0), time(2017, 1, 6, 0, 0));
+        assertNext("0 0 13 * 5", time(2017, 1, 12, 0, 0), time(2017, 1, 13, 0, 0));
+        // with either one unrestricted, the other one must match
+        assertNext("0 0 13 * *", time(2017, 1, 1, 0, 0), time(2017, 1, 13, 0, 0));
+        assertNext("0 0 * * 5", time(2017, 1, 7, 0, 0), time(2017, 1, 13, 0, 0));
+    }
+
+    @Test
+    public void skipsTimesMissingOnDaylightSavingDays() {
+        // 2:30 does not exist on 2017-03-12 in Toronto
+        assertNext("30 2 * * *", time(2017, 3, 12, 0, 0), time(2017, 3, 13, 2, 30));
+        assertNext("0 3 * * *", time(2017, 3, 12, 0, 0), time(2017, 3, 12, 3, 0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failsIfNeverMatching() {
+        CronSchedule.parse("0 0 30 2 *").next(time(2017, 1, 1, 0, 0));
+    }
+
+    @Test
+    public void rejectsMalformedExpressions() {
+        for (String expression : new String[] {
+                "* * * *", "* * * * * *", "60 * * * *", "* 24 * * *", "* * 0 * *",
+                "* * * 13 *", "* * * * 8", "a * * * *", "5-1 * * * *", "*/0 * * * *",
+                "1-2-3 * * * *", "MON * * * *" }) {
+            try {
+                CronSchedule.parse(expression);
+                fail("Parsed " + expression);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void keepsExpressionText() {
+        assertEquals("0 6 * * *", CronSchedule.parse("0 6 * * *").toString());
+    }
+}